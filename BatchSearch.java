@@ -0,0 +1,199 @@
+/**
+ * BatchSearch class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class runs many query-by-example searches without the GUI, e.g. for
+ * near-duplicate reports or evaluation. The queries are read from a file, one
+ * image number or indexed image path per line, and searched in parallel
+ * against the feature store in the working directory. For each query one line
+ * is written to the output:
+ * <pre>
+ *   query TAB imageNo imageNo ...      the k most similar images, most similar first
+ *   query TAB ERROR message            if the query image is not indexed
+ * </pre>
+ * Queries are processed in blocks so the output is streamed in input order
+ * while only one block of results is held in memory.
+ *
+ * Usage: java BatchSearch [-method intensity|colorCode|combined] [-k n]
+ *                         [-threads n] [-out file] queryFile
+ */
+public final class BatchSearch {
+    private static final int BLOCK_PER_THREAD = 256;  // queries per thread in one block
+
+    private final SearchEngine engine;
+    private final Map<String, Integer> imageNoOfPath = new HashMap<String, Integer>();
+
+    /**
+     * @param engine the search engine
+     * @param manifest the index manifest, used to look up queries given as paths
+     */
+    public BatchSearch(SearchEngine engine, IndexManifest manifest) {
+        this.engine = engine;
+        for (IndexManifest.Entry entry : manifest.entries()) {
+            imageNoOfPath.put(new File(entry.path).getAbsolutePath(), entry.imageNo);
+        }
+    }
+
+    /**
+     * Runs all queries and writes one line of results per query.
+     * @param queries the queries, image numbers or paths of indexed images
+     * @param method the features used to compare images
+     * @param k number of results per query
+     * @param threads number of worker threads
+     * @param out receives the results
+     * @return the number of queries that failed
+     * @throws IOException if the results cannot be written
+     */
+    public int run(BufferedReader queries, final SearchEngine.Method method, final int k, int threads,
+                   Writer out) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int failed = 0;
+        try {
+            List<String> block = new ArrayList<String>();
+            String line;
+            boolean more = true;
+            while (more) {
+                line = queries.readLine();
+                if (line == null) {
+                    more = false;
+                } else if (!line.trim().isEmpty()) {
+                    block.add(line.trim());
+                }
+                if (block.size() == threads * BLOCK_PER_THREAD || (!more && !block.isEmpty())) {
+                    List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+                    for (final String query : block) {
+                        tasks.add(new Callable<Result>() {
+                            public Result call() {
+                                return search(query, method, k);
+                            }
+                        });
+                    }
+                    List<Future<Result>> results = pool.invokeAll(tasks);
+                    for (int i = 0; i < block.size(); i++) {
+                        Result result = results.get(i).get();
+                        if (result.failed) {
+                            failed++;
+                        }
+                        out.write(block.get(i));
+                        out.write("\t");
+                        out.write(result.text);
+                        out.write("\n");
+                    }
+                    out.flush();
+                    block.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch search was interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed;
+    }
+
+    /**
+     * The answer to one query.
+     */
+    private static final class Result {
+        final boolean failed;
+        final String text;  // the results, or ERROR and a message
+
+        Result(boolean failed, String text) {
+            this.failed = failed;
+            this.text = text;
+        }
+    }
+
+    private static Result error(String message) {
+        return new Result(true, "ERROR " + message);
+    }
+
+    /**
+     * @return the image numbers of the k most similar images separated by
+     *         spaces, or ERROR and a message
+     */
+    private Result search(String query, SearchEngine.Method method, int k) {
+        Integer imageNo = imageNoOfPath.get(new File(query).getAbsolutePath());
+        if (imageNo == null) {
+            try {
+                imageNo = Integer.valueOf(query);
+            } catch (NumberFormatException e) {
+                return error("image is not indexed");
+            }
+        }
+        int row = engine.rowOf(imageNo);
+        if (row < 0) {
+            return error("image " + imageNo + " is not indexed");
+        }
+        int[] rows = engine.top(row, method, null, k);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < rows.length; i++) {
+            if (i > 0) {
+                result.append(' ');
+            }
+            result.append(engine.getImageNo(rows[i]));
+        }
+        return new Result(false, result.toString());
+    }
+
+    /**
+     * @return the method named on the command line
+     */
+    static SearchEngine.Method parseMethod(String name) {
+        String key = name.replace("_", "").toLowerCase(Locale.ROOT);
+        for (SearchEngine.Method method : SearchEngine.Method.values()) {
+            if (method.name().replace("_", "").toLowerCase(Locale.ROOT).equals(key)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unknown method " + name);
+    }
+
+    public static void main(String[] args) throws IOException {
+        SearchEngine.Method method = SearchEngine.Method.INTENSITY;
+        int k = 20;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = null;
+        String queryFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-method")) {
+                method = parseMethod(args[++i]);
+            } else if (args[i].equals("-k")) {
+                k = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-out")) {
+                out = args[++i];
+            } else {
+                queryFile = args[i];
+            }
+        }
+        if (queryFile == null) {
+            System.out.println("Usage: java BatchSearch [-method intensity|colorCode|combined] [-k n]"
+                               + " [-threads n] [-out file] queryFile");
+            System.exit(2);
+        }
+
+        FeatureStore store = FeatureStore.open(new File(FeatureStore.FILE_NAME));
+        BatchSearch batch = new BatchSearch(SearchEngine.fromStore(store),
+                                            IndexManifest.load(new File(IndexManifest.FILE_NAME)));
+        long start = System.nanoTime();
+        int failed;
+        try (BufferedReader queries = new BufferedReader(new FileReader(queryFile));
+             Writer writer = new BufferedWriter(out == null ? new OutputStreamWriter(System.out)
+                                                            : new FileWriter(out))) {
+            failed = batch.run(queries, method, k, threads, writer);
+        }
+        System.err.println("Finished in " + (System.nanoTime() - start) / 1000000 + " ms, "
+                           + failed + " queries failed.");
+    }
+}
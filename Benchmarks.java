@@ -0,0 +1,339 @@
+/**
+ * Benchmarks class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class measures the hot paths of indexing and searching on synthetic
+ * data: histogram extraction of one image, importing and parsing the text
+ * files, loading the feature store, one query of each search method, the
+ * relevance-feedback weights and top-K ranking. Every benchmark runs a number
+ * of warm-up operations followed by measured ones, and the results are written
+ * as JSON, one object per benchmark with the mean, median and 99th percentile
+ * time per operation in nanoseconds, so runs can be compared by a script.
+ * Every operation returns a value computed from its result, and all of them
+ * are summed into a blackhole printed with the results, so the JIT cannot
+ * drop the measured work as dead code.
+ *
+ * Usage: java Benchmarks [-images n] [-width w] [-height h] [-warmup n]
+ *                        [-iterations n] [-seed n] [-out file] [name ...]
+ * With names given, only the benchmarks whose names start with one of them
+ * are run. The query cache is disabled unless -DimageSearch.queryCacheBytes
+ * is set, so repeated queries are measured rather than cache hits.
+ */
+public final class Benchmarks {
+    private int images = 10000;
+    private int width = 384;
+    private int height = 256;
+    private int warmup = 20;
+    private int iterations = 100;
+    private long seed = 42;
+    private final Random random = new Random();
+    private final List<String> results = new ArrayList<String>();
+    private long blackhole;  // sum of the values returned by all operations
+
+    // synthetic data, generated once
+    private int[] imageNo;
+    private int[] imageSize;
+    private int[][] intensity;
+    private int[][] colorCode;
+    private SearchEngine engine;
+
+    /**
+     * One benchmarked operation.
+     */
+    private interface Operation {
+        /**
+         * @return a value computed from the operation's result
+         */
+        long run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("imageSearch.queryCacheBytes") == null) {
+            System.setProperty("imageSearch.queryCacheBytes", "0");
+        }
+        Benchmarks bench = new Benchmarks();
+        String out = null;
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-images")) {
+                bench.images = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-width")) {
+                bench.width = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-height")) {
+                bench.height = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-warmup")) {
+                bench.warmup = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-iterations")) {
+                bench.iterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-seed")) {
+                bench.seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("-out")) {
+                out = args[++i];
+            } else {
+                names.add(arg);
+            }
+        }
+        bench.random.setSeed(bench.seed);
+        bench.runAll(names);
+        String json = bench.toJson();
+        if (out == null) {
+            System.out.println(json);
+        } else {
+            try (Writer writer = new BufferedWriter(new FileWriter(out))) {
+                writer.write(json);
+                writer.write("\n");
+            }
+        }
+    }
+
+    private void runAll(List<String> names) throws Exception {
+        generateFeatures();
+        engine = new SearchEngine(imageNo, doubles(intensity), doubles(colorCode));
+
+        if (selected(names, "extract")) {
+            final BufferedImage bgr = syntheticImage(BufferedImage.TYPE_3BYTE_BGR);
+            final BufferedImage rgb = syntheticImage(BufferedImage.TYPE_INT_RGB);
+            final int[] intensityBins = new int[HistogramKernel.INTENSITY_BINS];
+            final int[] colorCodeBins = new int[HistogramKernel.COLORCODE_BINS];
+            measure("extract.3byteBgr", new Operation() {
+                public long run(int i) {
+                    Arrays.fill(intensityBins, 0);
+                    Arrays.fill(colorCodeBins, 0);
+                    HistogramKernel.extract(bgr, intensityBins, colorCodeBins);
+                    return intensityBins[0] + colorCodeBins[0];
+                }
+            });
+            measure("extract.intRgb", new Operation() {
+                public long run(int i) {
+                    Arrays.fill(intensityBins, 0);
+                    Arrays.fill(colorCodeBins, 0);
+                    HistogramKernel.extract(rgb, intensityBins, colorCodeBins);
+                    return intensityBins[0] + colorCodeBins[0];
+                }
+            });
+        }
+
+        if (selected(names, "load")) {
+            final File dir = createTempDirectory();
+            final File intensityFile = new File(dir, "intensity.txt");
+            final File colorCodeFile = new File(dir, "colorCode.txt");
+            final File storeFile = new File(dir, FeatureStore.FILE_NAME);
+            FeatureStore.write(storeFile, imageNo, imageSize, intensity, colorCode);
+            FeatureStore.open(storeFile).exportText(intensityFile, colorCodeFile);
+            final File importedFile = new File(dir, "imported.bin");
+            measure("load.textImport", new Operation() {
+                public long run(int i) throws IOException {
+                    FeatureStore.importText(intensityFile, colorCodeFile, importedFile);
+                    return importedFile.length();
+                }
+            });
+            measure("load.textParse", new Operation() {
+                public long run(int i) throws IOException {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    double[][] intensityRows = HistogramTextParser.read(intensityFile, imageNo,
+                                                                        HistogramKernel.INTENSITY_BINS, threads);
+                    double[][] colorCodeRows = HistogramTextParser.read(colorCodeFile, imageNo,
+                                                                        HistogramKernel.COLORCODE_BINS, threads);
+                    return Double.doubleToLongBits(intensityRows[images - 1][0] + colorCodeRows[images - 1][0]);
+                }
+            });
+            measure("load.store", new Operation() {
+                public long run(int i) throws IOException {
+                    return SearchEngine.fromStore(FeatureStore.open(storeFile)).getImageCount();
+                }
+            });
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+
+        if (selected(names, "query")) {
+            for (final SearchEngine.Method method : SearchEngine.Method.values()) {
+                measure("query." + method, new Operation() {
+                    public long run(int i) {
+                        return engine.search(i % images, method).top(20)[0];
+                    }
+                });
+            }
+            final FeatureMatrix features = featureMatrix();
+            final FeatureMatrix.View view = features.view(0, HistogramKernel.INTENSITY_BINS);
+            final VpTree tree = VpTree.build(view);
+            measure("query.INTENSITY.tree", new Operation() {
+                public long run(int i) {
+                    return tree.nearest(view, view.row(i % images), 20)[0];
+                }
+            });
+        }
+
+        if (selected(names, "feedback")) {
+            final int[] rows = new int[10];
+            for (int j = 0; j < rows.length; j++) {
+                rows[j] = random.nextInt(images);
+            }
+            final RelevanceFeedback feedback = new RelevanceFeedback(engine);
+            measure("feedback.weights", new Operation() {
+                public long run(int i) {
+                    feedback.clear();
+                    for (int row : rows) {
+                        feedback.mark(row);
+                    }
+                    return Double.doubleToLongBits(feedback.weights()[0]);
+                }
+            });
+            measure("feedback.combinedQuery", new Operation() {
+                public long run(int i) {
+                    return engine.searchCombined(i % images, feedback.weights()).top(20)[0];
+                }
+            });
+        }
+
+        if (selected(names, "rank")) {
+            final double[] distance = new double[images];
+            for (int j = 0; j < images; j++) {
+                distance[j] = random.nextDouble();
+            }
+            measure("rank.top20", new Operation() {
+                public long run(int i) {
+                    return new Ranking(distance).top(20)[0];
+                }
+            });
+            measure("rank.allPages", new Operation() {
+                public long run(int i) {
+                    return new Ranking(distance).top(images)[images - 1];
+                }
+            });
+        }
+    }
+
+    private static boolean selected(List<String> names, String benchmark) {
+        if (names.isEmpty()) {
+            return true;
+        }
+        for (String name : names) {
+            if (name.startsWith(benchmark) || benchmark.startsWith(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the warm-up and measured operations and records their times.
+     */
+    private void measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            blackhole += operation.run(i);
+        }
+        long[] time = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            blackhole += operation.run(i);
+            time[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(time);
+        double total = 0;
+        for (long t : time) {
+            total += t;
+        }
+        double mean = total / iterations;
+        long p50 = time[iterations / 2];
+        long p99 = time[Math.min(iterations - 1, (int) Math.ceil(iterations * 0.99) - 1)];
+        results.add(String.format(Locale.ROOT,
+            "{\"benchmark\": \"%s\", \"iterations\": %d, \"meanNs\": %.1f, \"p50Ns\": %d, \"p99Ns\": %d, \"opsPerSecond\": %.2f}",
+            name, iterations, mean, p50, p99, 1e9 / mean));
+        System.err.println(name + ": " + String.format(Locale.ROOT, "%.3f", mean / 1e6) + " ms/op");
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"images\": ").append(images)
+            .append(",\n  \"imageWidth\": ").append(width)
+            .append(",\n  \"imageHeight\": ").append(height)
+            .append(",\n  \"seed\": ").append(seed)
+            .append(",\n  \"java\": \"").append(System.getProperty("java.version")).append("\"")
+            .append(",\n  \"blackhole\": ").append(blackhole)
+            .append(",\n  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ").append(results.get(i));
+        }
+        json.append("\n  ]\n}");
+        return json.toString();
+    }
+
+    /**
+     * Generates histograms of random images of the configured size: each
+     * histogram spreads the image's pixels over a few random bins.
+     */
+    private void generateFeatures() {
+        imageNo = new int[images];
+        imageSize = new int[images];
+        intensity = new int[images][];
+        colorCode = new int[images][];
+        for (int i = 0; i < images; i++) {
+            imageNo[i] = i + 1;
+            imageSize[i] = width * height;
+            intensity[i] = syntheticHistogram(HistogramKernel.INTENSITY_BINS, imageSize[i]);
+            colorCode[i] = syntheticHistogram(HistogramKernel.COLORCODE_BINS, imageSize[i]);
+        }
+    }
+
+    private int[] syntheticHistogram(int bins, int pixels) {
+        int[] histogram = new int[bins];
+        int left = pixels;
+        int used = 1 + random.nextInt(Math.min(bins, 12));
+        for (int k = 0; k < used - 1; k++) {
+            int count = random.nextInt(left + 1);
+            histogram[random.nextInt(bins)] += count;
+            left -= count;
+        }
+        histogram[random.nextInt(bins)] += left;
+        return histogram;
+    }
+
+    private BufferedImage syntheticImage(int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private double[][] doubles(int[][] counts) {
+        double[][] values = new double[counts.length][];
+        for (int i = 0; i < counts.length; i++) {
+            values[i] = new double[counts[i].length];
+            for (int j = 0; j < counts[i].length; j++) {
+                values[i][j] = (double) counts[i][j] / imageSize[i];
+            }
+        }
+        return values;
+    }
+
+    private FeatureMatrix featureMatrix() {
+        int intensityBins = HistogramKernel.INTENSITY_BINS;
+        FeatureMatrix features = new FeatureMatrix(images, intensityBins + HistogramKernel.COLORCODE_BINS);
+        for (int i = 0; i < images; i++) {
+            for (int j = 0; j < intensityBins; j++) {
+                features.set(i, j, (double) intensity[i][j] / imageSize[i]);
+            }
+            for (int j = 0; j < colorCode[i].length; j++) {
+                features.set(i, intensityBins + j, (double) colorCode[i][j] / imageSize[i]);
+            }
+        }
+        return features;
+    }
+
+    private static File createTempDirectory() throws IOException {
+        return java.nio.file.Files.createTempDirectory("imageSearch-bench").toFile();
+    }
+}
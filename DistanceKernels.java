@@ -0,0 +1,89 @@
+/**
+ * DistanceKernels class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.util.concurrent.CancellationException;
+
+/**
+ * This class computes the L1 and weighted L1 distances between feature vectors
+ * of 25 (intensity), 64 (color code) or 89 (combined) dimensions. Each distance
+ * is summed one dimension at a time in order, so it is rounded exactly like the
+ * original match loop and ties between images are ranked the same way.
+ *
+ * Scans over all rows check every BLOCK_ROWS rows whether the scanning thread
+ * was interrupted and then stop with a CancellationException, so a search
+ * that was superseded, e.g. by a newer one in the GUI, stops using the CPU.
+ */
+public final class DistanceKernels {
+    /**
+     * Number of rows scanned between two checks for interruption.
+     */
+    public static final int BLOCK_ROWS = 4096;
+
+    private DistanceKernels() {
+    }
+
+    /**
+     * @throws CancellationException if the current thread was interrupted; its
+     *         interrupted status is kept
+     */
+    public static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("The distance scan was interrupted.");
+        }
+    }
+
+    /**
+     * @return the L1 distance between a and the n values of b starting at bOffset
+     */
+    public static double l1(double[] a, double[] b, int bOffset, int n) {
+        double d = 0.0;
+        for (int j = 0; j < n; j++) {
+            d += Math.abs(a[j] - b[bOffset + j]);
+        }
+        return d;
+    }
+
+    /**
+     * @return the L1 distance between a and the n values of b starting at
+     *         bOffset, with the difference in dimension j multiplied by weights[j]
+     */
+    public static double weightedL1(double[] a, double[] b, int bOffset, double[] weights, int n) {
+        double d = 0.0;
+        for (int j = 0; j < n; j++) {
+            d += weights[j]*Math.abs(a[j] - b[bOffset + j]);
+        }
+        return d;
+    }
+
+    /**
+     * Computes the distance of every row of a row-major matrix to a query vector.
+     * @param query the query vector
+     * @param data the matrix values, one row after another
+     * @param offset position of the first compared value within a row
+     * @param stride number of values of each row
+     * @param rows number of rows
+     * @param weights weight of each dimension, or null for the plain L1 distance
+     * @param distance receives the distance of each row
+     * @throws CancellationException if the current thread is interrupted
+     */
+    public static void distances(double[] query, double[] data, int offset, int stride, int rows,
+                                 double[] weights, double[] distance) {
+        int n = query.length;
+        for (int start = 0; start < rows; start += BLOCK_ROWS) {
+            checkInterrupted();
+            int end = Math.min(rows, start + BLOCK_ROWS);
+            int base = offset + start * stride;
+            if (weights == null) {
+                for (int i = start; i < end; i++, base += stride) {
+                    distance[i] = l1(query, data, base, n);
+                }
+            } else {
+                for (int i = start; i < end; i++, base += stride) {
+                    distance[i] = weightedL1(query, data, base, weights, n);
+                }
+            }
+        }
+    }
+}
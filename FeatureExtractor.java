@@ -0,0 +1,36 @@
+/**
+ * FeatureExtractor interface
+ * @author Jingjing Dong
+ * @date
+ */
+
+/**
+ * A histogram feature computed from the pixels of an image. HistogramKernel
+ * sweeps the pixels of an image once, a row at a time, and hands every row to
+ * each registered extractor, so adding an extractor adds no decode and no
+ * pixel pass. Each extractor counts pixels in its own bins; the feature values
+ * are the bin counts divided by the number of pixels.
+ *
+ * Extractors keep no state between calls, so one instance is shared by all
+ * indexing threads. They are registered by name in FeatureExtractors.
+ */
+public interface FeatureExtractor {
+    /**
+     * @return the name the extractor is registered and stored under
+     */
+    String getName();
+
+    /**
+     * @return the number of bins
+     */
+    int getBins();
+
+    /**
+     * Counts one row of pixels in the bins.
+     * @param rgb the row's pixels as 0xRRGGBB, from x = 0 to width - 1
+     * @param previous the row above as 0xRRGGBB, or null for the first row
+     * @param width number of pixels in the row
+     * @param bins the bins to be incremented
+     */
+    void addRow(int[] rgb, int[] previous, int width, int[] bins);
+}
@@ -0,0 +1,208 @@
+/**
+ * FeatureExtractors class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.util.*;
+
+/**
+ * This class registers the feature extractors by name and provides the
+ * built-in ones:
+ * <pre>
+ *   intensity  25 bins of 0.299R + 0.587G + 0.114B, 10 levels wide
+ *   colorCode  64 bins of the 2 most significant bits of R, G and B
+ *   hsv        72 bins: 8 hues x 3 saturations x 3 values
+ *   edge        9 bins: 8 gradient directions of edge pixels, and non-edge pixels
+ * </pre>
+ * Intensity and color code are always indexed, since the intensity, color
+ * code and combined searches and the legacy text files are built on them.
+ * Further extractors are indexed after them when named in
+ * -DimageSearch.extractors, e.g. -DimageSearch.extractors=hsv,edge, and are
+ * part of the combined search and of relevance feedback.
+ */
+public final class FeatureExtractors {
+    public static final FeatureExtractor INTENSITY = new FeatureExtractor() {
+        public String getName() {
+            return "intensity";
+        }
+
+        public int getBins() {
+            return HistogramKernel.INTENSITY_BINS;
+        }
+
+        public void addRow(int[] rgb, int[] previous, int width, int[] bins) {
+            for (int x = 0; x < width; x++) {
+                int p = rgb[x];
+                bins[HistogramKernel.intensityBin((p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF)]++;
+            }
+        }
+    };
+
+    public static final FeatureExtractor COLOR_CODE = new FeatureExtractor() {
+        public String getName() {
+            return "colorCode";
+        }
+
+        public int getBins() {
+            return HistogramKernel.COLORCODE_BINS;
+        }
+
+        public void addRow(int[] rgb, int[] previous, int width, int[] bins) {
+            for (int x = 0; x < width; x++) {
+                int p = rgb[x];
+                bins[HistogramKernel.colorCodeBin((p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF)]++;
+            }
+        }
+    };
+
+    public static final FeatureExtractor HSV = new FeatureExtractor() {
+        public String getName() {
+            return "hsv";
+        }
+
+        public int getBins() {
+            return 8 * 3 * 3;
+        }
+
+        public void addRow(int[] rgb, int[] previous, int width, int[] bins) {
+            for (int x = 0; x < width; x++) {
+                int p = rgb[x];
+                int r = (p >> 16) & 0xFF;
+                int g = (p >> 8) & 0xFF;
+                int b = p & 0xFF;
+                int max = Math.max(r, Math.max(g, b));
+                int chroma = max - Math.min(r, Math.min(g, b));
+                int hue = 0;  // grey pixels have no hue
+                if (chroma != 0) {
+                    double h;
+                    if (max == r) {
+                        h = (double) (g - b) / chroma;
+                        if (h < 0) {
+                            h += 6;
+                        }
+                    } else if (max == g) {
+                        h = (double) (b - r) / chroma + 2;
+                    } else {
+                        h = (double) (r - g) / chroma + 4;
+                    }
+                    hue = Math.min(7, (int) (h * 8 / 6));
+                }
+                // saturation below 0.2, below 0.6 or above; value below 85, below 170 or above
+                int saturation = chroma * 5 < max ? 0 : chroma * 5 < 3 * max ? 1 : 2;
+                int value = max < 85 ? 0 : max < 170 ? 1 : 2;
+                bins[(hue * 3 + saturation) * 3 + value]++;
+            }
+        }
+    };
+
+    public static final FeatureExtractor EDGE = new FeatureExtractor() {
+        private static final int THRESHOLD = 32;  // smallest |gx| + |gy| of an edge pixel
+
+        public String getName() {
+            return "edge";
+        }
+
+        public int getBins() {
+            return 9;
+        }
+
+        public void addRow(int[] rgb, int[] previous, int width, int[] bins) {
+            for (int x = 0; x < width; x++) {
+                // horizontal gradient within the row, vertical gradient to the row above
+                int gx = luma(rgb[Math.min(x + 1, width - 1)]) - luma(rgb[Math.max(x - 1, 0)]);
+                int gy = previous == null ? 0 : luma(rgb[x]) - luma(previous[x]);
+                int ax = Math.abs(gx);
+                int ay = Math.abs(gy);
+                if (ax + ay < THRESHOLD) {
+                    bins[8]++;
+                } else if (ay * 5 <= ax * 2) {
+                    bins[gx > 0 ? 0 : 4]++;
+                } else if (ax * 5 <= ay * 2) {
+                    bins[gy > 0 ? 2 : 6]++;
+                } else if (gx > 0) {
+                    bins[gy > 0 ? 1 : 7]++;
+                } else {
+                    bins[gy > 0 ? 3 : 5]++;
+                }
+            }
+        }
+
+        private int luma(int p) {
+            return (299 * ((p >> 16) & 0xFF) + 587 * ((p >> 8) & 0xFF) + 114 * (p & 0xFF)) / 1000;
+        }
+    };
+
+    private static final Map<String, FeatureExtractor> REGISTERED = new LinkedHashMap<String, FeatureExtractor>();
+
+    static {
+        register(INTENSITY);
+        register(COLOR_CODE);
+        register(HSV);
+        register(EDGE);
+    }
+
+    private FeatureExtractors() {
+    }
+
+    /**
+     * Registers an extractor, so it can be named in -DimageSearch.extractors
+     * and read back from feature stores.
+     * @throws IllegalArgumentException if another extractor has the same name
+     */
+    public static synchronized void register(FeatureExtractor extractor) {
+        if (REGISTERED.containsKey(extractor.getName())) {
+            throw new IllegalArgumentException("Feature extractor " + extractor.getName()
+                                               + " is already registered");
+        }
+        REGISTERED.put(extractor.getName(), extractor);
+    }
+
+    /**
+     * @return the extractor registered under the name
+     * @throws IllegalArgumentException if no extractor has the name
+     */
+    public static synchronized FeatureExtractor forName(String name) {
+        FeatureExtractor extractor = REGISTERED.get(name);
+        if (extractor == null) {
+            throw new IllegalArgumentException("Unknown feature extractor " + name);
+        }
+        return extractor;
+    }
+
+    /**
+     * @return the names of all registered extractors
+     */
+    public static synchronized List<String> names() {
+        return new ArrayList<String>(REGISTERED.keySet());
+    }
+
+    /**
+     * @return the extractors indexed in addition to intensity and color code,
+     *         as named in -DimageSearch.extractors
+     */
+    public static List<FeatureExtractor> configured() {
+        List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+        for (String name : System.getProperty("imageSearch.extractors", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || name.equals(INTENSITY.getName()) || name.equals(COLOR_CODE.getName())) {
+                continue;
+            }
+            FeatureExtractor extractor = forName(name);
+            if (!extractors.contains(extractor)) {
+                extractors.add(extractor);
+            }
+        }
+        return extractors;
+    }
+
+    /**
+     * @return the total number of bins of the extractors
+     */
+    public static int bins(List<FeatureExtractor> extractors) {
+        int bins = 0;
+        for (FeatureExtractor extractor : extractors) {
+            bins += extractor.getBins();
+        }
+        return bins;
+    }
+}
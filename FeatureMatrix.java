@@ -0,0 +1,279 @@
+/**
+ * FeatureMatrix class
+ * @author Jingjing Dong
+ * @date
+ */
+
+/**
+ * This class stores the feature vectors of all images in one contiguous,
+ * row-major primitive array. Values are kept either as doubles or quantized to
+ * 16 or 8 bits per value with a scale per dimension, which cuts the memory per
+ * image from 712 bytes to 178 or 89 bytes for the 89 intensity + color code
+ * features. Searches read the storage through views over a range of
+ * dimensions, so the intensity, color code and combined searches all share
+ * the same array.
+ */
+public final class FeatureMatrix {
+    /**
+     * How the values are stored.
+     */
+    public enum Precision { DOUBLE, SHORT, BYTE }
+
+    /**
+     * Values that are not held in a FeatureMatrix, e.g. the rows of a
+     * memory-mapped FeatureStore.
+     */
+    public interface Source {
+        double get(int row, int j);
+    }
+
+    /**
+     * @return the precision named by -DimageSearch.precision in any case, or
+     *         DOUBLE if it is not set or names no precision
+     */
+    public static Precision configuredPrecision() {
+        String name = System.getProperty("imageSearch.precision", "").trim();
+        if (name.isEmpty()) {
+            return Precision.DOUBLE;
+        }
+        for (Precision precision : Precision.values()) {
+            if (precision.name().equalsIgnoreCase(name)) {
+                return precision;
+            }
+        }
+        System.out.println("Unknown precision " + name + ", the features are kept as doubles.");
+        return Precision.DOUBLE;
+    }
+
+    private final int rows;
+    private final int dims;
+    private final Precision precision;
+    private final double[] doubles;
+    private final short[] shorts;
+    private final byte[] bytes;
+    private final double[] scale; // value of one quantization step per dimension
+
+    /**
+     * Constructs a matrix of doubles, all zero.
+     * @param rows number of rows
+     * @param dims number of dimensions of each row
+     */
+    public FeatureMatrix(int rows, int dims) {
+        this(rows, dims, Precision.DOUBLE, null);
+    }
+
+    private FeatureMatrix(int rows, int dims, Precision precision, double[] scale) {
+        long length = (long) rows * dims;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many features: " + rows + " x " + dims);
+        }
+        this.rows = rows;
+        this.dims = dims;
+        this.precision = precision;
+        this.scale = scale;
+        this.doubles = precision == Precision.DOUBLE ? new double[(int) length] : null;
+        this.shorts = precision == Precision.SHORT ? new short[(int) length] : null;
+        this.bytes = precision == Precision.BYTE ? new byte[(int) length] : null;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getDims() {
+        return dims;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets one value of a matrix of doubles.
+     */
+    public void set(int row, int j, double value) {
+        if (precision != Precision.DOUBLE) {
+            throw new IllegalStateException("Quantized features cannot be changed");
+        }
+        doubles[row * dims + j] = value;
+    }
+
+    /**
+     * @return the value of dimension j of the row
+     */
+    public double get(int row, int j) {
+        int i = row * dims + j;
+        switch (precision) {
+            case DOUBLE:
+                return doubles[i];
+            case SHORT:
+                return (shorts[i] & 0xFFFF) * scale[j];
+            default:
+                return (bytes[i] & 0xFF) * scale[j];
+        }
+    }
+
+    /**
+     * Quantizes a matrix of non-negative doubles. Each dimension is scaled so
+     * that its largest value maps to the largest quantized value.
+     * @param precision SHORT or BYTE
+     * @return the quantized copy of this matrix
+     */
+    public FeatureMatrix quantize(Precision precision) {
+        if (this.precision != Precision.DOUBLE) {
+            throw new IllegalStateException("Features are already quantized");
+        }
+        if (precision == Precision.DOUBLE) {
+            return this;
+        }
+        return read(new Source() {
+            public double get(int row, int j) {
+                return doubles[row * dims + j];
+            }
+        }, rows, dims, precision);
+    }
+
+    /**
+     * Reads non-negative values into a matrix of the given precision, row by
+     * row, so only the matrix in its final precision is ever allocated. Each
+     * quantized dimension is scaled so that its largest value maps to the
+     * largest quantized value, which takes one pass over the source to find.
+     * @param source the values
+     * @param rows number of rows
+     * @param dims number of dimensions of each row
+     * @param precision how the values are stored
+     * @return the matrix
+     */
+    public static FeatureMatrix read(Source source, int rows, int dims, Precision precision) {
+        if (precision == Precision.DOUBLE) {
+            FeatureMatrix matrix = new FeatureMatrix(rows, dims);
+            for (int row = 0; row < rows; row++) {
+                for (int j = 0; j < dims; j++) {
+                    matrix.doubles[row * dims + j] = source.get(row, j);
+                }
+            }
+            return matrix;
+        }
+        int levels = precision == Precision.SHORT ? 0xFFFF : 0xFF;
+        double[] max = new double[dims];
+        for (int row = 0; row < rows; row++) {
+            for (int j = 0; j < dims; j++) {
+                double value = source.get(row, j);
+                if (value < 0) {
+                    throw new IllegalStateException("Only non-negative features can be quantized");
+                }
+                max[j] = Math.max(max[j], value);
+            }
+        }
+        double[] step = new double[dims];
+        for (int j = 0; j < dims; j++) {
+            step[j] = max[j] == 0 ? 1.0 : max[j] / levels;
+        }
+        FeatureMatrix quantized = new FeatureMatrix(rows, dims, precision, step);
+        for (int row = 0; row < rows; row++) {
+            for (int j = 0; j < dims; j++) {
+                int i = row * dims + j;
+                long q = Math.round(source.get(row, j) / step[j]);
+                if (precision == Precision.SHORT) {
+                    quantized.shorts[i] = (short) q;
+                } else {
+                    quantized.bytes[i] = (byte) q;
+                }
+            }
+        }
+        return quantized;
+    }
+
+    /**
+     * @param offset first dimension of the view
+     * @param length number of dimensions of the view
+     * @return a view of the given dimensions of every row
+     */
+    public View view(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > dims) {
+            throw new IllegalArgumentException("No dimensions " + offset + " to " + (offset + length));
+        }
+        return new View(offset, length);
+    }
+
+    /**
+     * A range of dimensions of every row of the matrix.
+     */
+    public final class View {
+        private final int offset;
+        private final int length;
+
+        private View(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getDims() {
+            return length;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the value of dimension j of the view in the row
+         */
+        public double get(int row, int j) {
+            return FeatureMatrix.this.get(row, offset + j);
+        }
+
+        /**
+         * @return a copy of the row's values in this view
+         */
+        public double[] row(int row) {
+            double[] values = new double[length];
+            for (int j = 0; j < length; j++) {
+                values[j] = get(row, j);
+            }
+            return values;
+        }
+
+        /**
+         * @return the L1 distance between the query and the row's values in this view
+         */
+        public double distance(double[] query, int row) {
+            if (precision == Precision.DOUBLE) {
+                return DistanceKernels.l1(query, doubles, row * dims + offset, length);
+            }
+            double d = 0.0;
+            for (int j = 0; j < length; j++) {
+                d += Math.abs(query[j] - get(row, j));
+            }
+            return d;
+        }
+
+        /**
+         * Computes the (weighted) L1 distance of every row to the query.
+         * @param query query vector with getDims() values
+         * @param weights weight of each dimension, or null for the plain L1 distance
+         * @param distance receives the distance of each row
+         * @throws java.util.concurrent.CancellationException if the current
+         *         thread is interrupted
+         */
+        public void distances(double[] query, double[] weights, double[] distance) {
+            if (precision == Precision.DOUBLE) {
+                DistanceKernels.distances(query, doubles, offset, dims, rows, weights, distance);
+                return;
+            }
+            for (int row = 0; row < rows; row++) {
+                if (row % DistanceKernels.BLOCK_ROWS == 0) {
+                    DistanceKernels.checkInterrupted();
+                }
+                int base = row * dims + offset;
+                double d = 0.0;
+                for (int j = 0; j < length; j++) {
+                    int q = precision == Precision.SHORT ? shorts[base + j] & 0xFFFF : bytes[base + j] & 0xFF;
+                    double diff = Math.abs(query[j] - q * scale[offset + j]);
+                    d += weights == null ? diff : weights[j]*diff;
+                }
+                distance[row] = d;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * FeatureStats class
+ * @author Jingjing Dong
+ * @date
+ */
+
+/**
+ * This class keeps the running mean and variance of every feature, used for
+ * Gaussian normalization of the intensity + color code features. Values are
+ * added and removed one image at a time with Welford's streaming update, so an
+ * incremental reindex only pays for the images that were added, changed or
+ * deleted instead of passing over the whole collection twice.
+ *
+ * The standard deviation uses n - 1 in the denominator, as the combined search
+ * always has.
+ */
+public final class FeatureStats {
+    private final double[] mean;
+    private final double[] m2;   // sum of squared differences from the mean
+    private long count;
+
+    /**
+     * Constructs the statistics of no images.
+     * @param features number of features of each image
+     */
+    public FeatureStats(int features) {
+        this.mean = new double[features];
+        this.m2 = new double[features];
+    }
+
+    /**
+     * Resumes the statistics of a number of images from their mean and
+     * standard deviation, e.g. as persisted in a feature store.
+     * @param mean mean of each feature
+     * @param std standard deviation of each feature
+     * @param count number of images
+     * @return the statistics
+     */
+    public static FeatureStats of(double[] mean, double[] std, long count) {
+        FeatureStats stats = new FeatureStats(mean.length);
+        stats.count = count;
+        for (int j = 0; j < mean.length; j++) {
+            stats.mean[j] = mean[j];
+            stats.m2[j] = count > 1 ? std[j] * std[j] * (count - 1) : 0.0;
+        }
+        return stats;
+    }
+
+    public int getFeatures() {
+        return mean.length;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Adds the features of one image.
+     */
+    public void add(double[] x) {
+        count++;
+        for (int j = 0; j < mean.length; j++) {
+            double delta = x[j] - mean[j];
+            mean[j] += delta / count;
+            m2[j] += delta * (x[j] - mean[j]);
+        }
+    }
+
+    /**
+     * Removes the features of an image that was added before.
+     */
+    public void remove(double[] x) {
+        if (count <= 1) {
+            count = 0;
+            java.util.Arrays.fill(mean, 0.0);
+            java.util.Arrays.fill(m2, 0.0);
+            return;
+        }
+        count--;
+        for (int j = 0; j < mean.length; j++) {
+            double delta = x[j] - mean[j];
+            mean[j] -= delta / count;
+            // rounding must not leave a slightly negative sum of squares
+            m2[j] = Math.max(0.0, m2[j] - delta * (x[j] - mean[j]));
+        }
+    }
+
+    /**
+     * @return the mean of each feature
+     */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * @return the standard deviation of each feature, NaN for fewer than two images
+     */
+    public double[] getStd() {
+        double[] std = new double[mean.length];
+        for (int j = 0; j < std.length; j++) {
+            std[j] = Math.sqrt(m2[j] / (count - 1));
+        }
+        return std;
+    }
+}
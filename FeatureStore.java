@@ -0,0 +1,600 @@
+/**
+ * FeatureStore class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * This class stores the intensity and color code histograms of all images in a
+ * versioned binary file which is memory-mapped when opened, so no text has to
+ * be parsed when the GUI starts.
+ *
+ * File layout (little endian):
+ * <pre>
+ *   header   magic, version, intensity bins, color code bins, image count,
+ *            pixel budget, number of extra extractors
+ *   extractors  bins, name length and UTF-8 name padded to 4 bytes of each
+ *               extra extractor
+ *   stats    mean and standard deviation of every normalized feature (doubles)
+ *   imageNo  int[imageCount]
+ *   size     int[imageCount]            number of pixels of each image
+ *   intensity int[imageCount * 25]      raw bin counts, one row per image
+ *   colorCode int[imageCount * 64]      raw bin counts, one row per image
+ *   extra    int[imageCount * extra bins]  raw bin counts of the extra
+ *                                          extractors, one row per image
+ * </pre>
+ * The extra extractors are the FeatureExtractors indexed in addition to
+ * intensity and color code. Version 1 files have neither the extractor count
+ * nor any extra section.
+ *
+ * The statistics are those used for Gaussian normalization of the
+ * intensity + color code + extra features, where each feature is the bin
+ * count divided by the image size. They are computed when the store is
+ * written, so searches never pass over the collection to normalize it.
+ */
+public final class FeatureStore {
+    public static final String FILE_NAME = "features.bin";
+    public static final int MAGIC = 0x494D4746; // "IMGF"
+    public static final int VERSION = 2;
+    private static final int HEADER_INTS = 7;
+    private static final int V1_HEADER_INTS = 6;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final int intensityBins;
+    private final int colorCodeBins;
+    private final int imageCount;
+    private final int pixelBudget;
+    private final String[] extraNames;
+    private final int[] extraBinCounts;
+    private final int extraBins;
+    private final double[] mean;
+    private final double[] std;
+    private final IntBuffer imageNo;
+    private final IntBuffer imageSize;
+    private final IntBuffer intensity;
+    private final IntBuffer colorCode;
+    private final IntBuffer extra;
+    private final ByteBuffer buffer;
+
+    private FeatureStore(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < V1_HEADER_INTS * 4 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a feature store file.");
+        }
+        int version = buffer.getInt(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported feature store version " + version + ".");
+        }
+        intensityBins = buffer.getInt(8);
+        colorCodeBins = buffer.getInt(12);
+        imageCount = buffer.getInt(16);
+        pixelBudget = buffer.getInt(20);
+        int offset = V1_HEADER_INTS * 4;
+        int extractors = 0;
+        if (version != 1) {
+            extractors = buffer.getInt(offset);
+            offset += 4;
+        }
+        extraNames = new String[extractors];
+        extraBinCounts = new int[extractors];
+        int bins = 0;
+        try {
+            for (int i = 0; i < extractors; i++) {
+                extraBinCounts[i] = buffer.getInt(offset);
+                int length = buffer.getInt(offset + 4);
+                byte[] name = new byte[length];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(offset + 8);
+                slice.get(name);
+                extraNames[i] = new String(name, StandardCharsets.UTF_8);
+                offset += 8 + padded(length);
+                bins += extraBinCounts[i];
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Feature store file is truncated.");
+        }
+        extraBins = bins;
+        int features = intensityBins + colorCodeBins + extraBins;
+        long expected = offset + fileSize(intensityBins + colorCodeBins + extraBins, imageCount);
+        if (buffer.capacity() < expected) {
+            throw new IOException("Feature store file is truncated.");
+        }
+
+        mean = new double[features];
+        std = new double[features];
+        for (int i = 0; i < features; i++, offset += 8) {
+            mean[i] = buffer.getDouble(offset);
+        }
+        for (int i = 0; i < features; i++, offset += 8) {
+            std[i] = buffer.getDouble(offset);
+        }
+        imageNo = section(buffer, offset, imageCount);
+        offset += imageCount * 4;
+        imageSize = section(buffer, offset, imageCount);
+        offset += imageCount * 4;
+        intensity = section(buffer, offset, imageCount * intensityBins);
+        offset += imageCount * intensityBins * 4;
+        colorCode = section(buffer, offset, imageCount * colorCodeBins);
+        offset += imageCount * colorCodeBins * 4;
+        extra = section(buffer, offset, imageCount * extraBins);
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static IntBuffer section(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length * 4);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * @return the size of the file after the header and extractor names
+     */
+    private static long fileSize(int features, int imageCount) {
+        return features * 16L + (long) imageCount * (2 + features) * 4L;
+    }
+
+    /**
+     * Opens a feature store file by mapping it into memory.
+     * @param file the feature store file
+     * @return the opened feature store
+     * @throws IOException if the file cannot be read or is not a feature store
+     */
+    public static FeatureStore open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Feature store file is too large.");
+            }
+            return new FeatureStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a feature store file. The file is written next to the target and
+     * then moved into place, so readers never see a partially written store.
+     * @param file the feature store file
+     * @param imageNo image number of each row
+     * @param imageSize number of pixels of each row's image
+     * @param intensity intensity bin counts of each row
+     * @param colorCode color code bin counts of each row
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, int[] imageNo, int[] imageSize,
+                             int[][] intensity, int[][] colorCode) throws IOException {
+        write(file, imageNo, imageSize, intensity, colorCode, stats(imageSize, intensity, colorCode, null), 0);
+    }
+
+    /**
+     * @param extra bin counts of the extra extractors of each row, or null if there are none
+     * @return the statistics of the intensity + color code + extra features of all rows
+     */
+    static FeatureStats stats(int[] imageSize, int[][] intensity, int[][] colorCode, int[][] extra) {
+        int intensityBins = imageSize.length == 0 ? HistogramKernel.INTENSITY_BINS : intensity[0].length;
+        int colorCodeBins = imageSize.length == 0 ? HistogramKernel.COLORCODE_BINS : colorCode[0].length;
+        int extraBins = imageSize.length == 0 || extra == null ? 0 : extra[0].length;
+        FeatureStats stats = new FeatureStats(intensityBins + colorCodeBins + extraBins);
+        for (int row = 0; row < imageSize.length; row++) {
+            stats.add(features(intensity[row], colorCode[row], extra == null ? NO_BINS : extra[row],
+                               imageSize[row]));
+        }
+        return stats;
+    }
+
+    private static final int[] NO_BINS = new int[0];
+
+    /**
+     * Writes a feature store file with normalization statistics that were
+     * already computed, e.g. updated incrementally by readImage.
+     * @param file the feature store file
+     * @param imageNo image number of each row
+     * @param imageSize number of pixels of each row's image
+     * @param intensity intensity bin counts of each row
+     * @param colorCode color code bin counts of each row
+     * @param stats statistics of the intensity + color code features of all rows
+     * @param pixelBudget the pixel budget the images were decoded with, 0 for full resolution
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, int[] imageNo, int[] imageSize, int[][] intensity,
+                             int[][] colorCode, FeatureStats stats, int pixelBudget) throws IOException {
+        write(file, imageNo, imageSize, intensity, colorCode, Collections.<FeatureExtractor>emptyList(),
+              new int[imageNo.length][0], stats, pixelBudget);
+    }
+
+    /**
+     * Writes a feature store file with the features of extra extractors.
+     * @param file the feature store file
+     * @param imageNo image number of each row
+     * @param imageSize number of pixels of each row's image
+     * @param intensity intensity bin counts of each row
+     * @param colorCode color code bin counts of each row
+     * @param extras the extractors indexed in addition to intensity and color code
+     * @param extra bin counts of the extra extractors of each row, one after the other
+     * @param stats statistics of the intensity + color code + extra features of all rows
+     * @param pixelBudget the pixel budget the images were decoded with, 0 for full resolution
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, int[] imageNo, int[] imageSize, int[][] intensity, int[][] colorCode,
+                             List<FeatureExtractor> extras, int[][] extra, FeatureStats stats,
+                             int pixelBudget) throws IOException {
+        int imageCount = imageNo.length;
+        int intensityBins = imageCount == 0 ? HistogramKernel.INTENSITY_BINS : intensity[0].length;
+        int colorCodeBins = imageCount == 0 ? HistogramKernel.COLORCODE_BINS : colorCode[0].length;
+        int extraBins = FeatureExtractors.bins(extras);
+        int features = intensityBins + colorCodeBins + extraBins;
+        if (stats.getFeatures() != features || stats.getCount() != imageCount) {
+            throw new IllegalArgumentException("Statistics do not match the features.");
+        }
+        double[] mean = stats.getMean();
+        double[] std = stats.getStd();
+        for (int[] row : extra) {
+            if (row.length != extraBins) {
+                throw new IllegalArgumentException("Extra features do not match the extractors.");
+            }
+        }
+
+        // the file is written through one buffer of WRITE_BUFFER_BYTES, so
+        // writing needs no more memory however many images are stored
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChunkWriter out = new ChunkWriter(channel);
+            out.putInt(MAGIC).putInt(VERSION).putInt(intensityBins).putInt(colorCodeBins)
+               .putInt(imageCount).putInt(pixelBudget).putInt(extras.size());
+            for (FeatureExtractor extractor : extras) {
+                byte[] name = extractor.getName().getBytes(StandardCharsets.UTF_8);
+                out.putInt(extractor.getBins()).putInt(name.length).put(name, padded(name.length));
+            }
+            for (double value : mean) {
+                out.putDouble(value);
+            }
+            for (double value : std) {
+                out.putDouble(value);
+            }
+            out.putInts(imageNo);
+            out.putInts(imageSize);
+            for (int[] row : intensity) {
+                out.putInts(row);
+            }
+            for (int[] row : colorCode) {
+                out.putInts(row);
+            }
+            for (int[] row : extra) {
+                out.putInts(row);
+            }
+            out.flush();
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes little endian values to a file channel through a buffer of fixed
+     * size.
+     */
+    private static final class ChunkWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        ChunkWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ChunkWriter putInt(int value) throws IOException {
+            reserve(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        ChunkWriter putDouble(double value) throws IOException {
+            reserve(8);
+            buffer.putDouble(value);
+            return this;
+        }
+
+        void putInts(int[] values) throws IOException {
+            for (int value : values) {
+                putInt(value);
+            }
+        }
+
+        /**
+         * Writes the bytes followed by zeros up to the given length.
+         */
+        void put(byte[] bytes, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                reserve(1);
+                buffer.put(i < bytes.length ? bytes[i] : 0);
+            }
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @return the intensity + color code features of an image: its bin counts
+     *         divided by its size
+     */
+    static double[] features(int[] intensity, int[] colorCode, int imageSize) {
+        return features(intensity, colorCode, NO_BINS, imageSize);
+    }
+
+    /**
+     * @return the intensity + color code + extra features of an image: its bin
+     *         counts divided by its size
+     */
+    static double[] features(int[] intensity, int[] colorCode, int[] extra, int imageSize) {
+        double[] x = new double[intensity.length + colorCode.length + extra.length];
+        for (int j = 0; j < intensity.length; j++) {
+            x[j] = (double) intensity[j] / imageSize;
+        }
+        for (int j = 0; j < colorCode.length; j++) {
+            x[intensity.length + j] = (double) colorCode[j] / imageSize;
+        }
+        for (int j = 0; j < extra.length; j++) {
+            x[intensity.length + colorCode.length + j] = (double) extra[j] / imageSize;
+        }
+        return x;
+    }
+
+    /**
+     * @return the intensity + color code + extra features of the image stored in the row
+     */
+    public double[] getFeatures(int row) {
+        double[] x = new double[getFeatureCount()];
+        for (int j = 0; j < intensityBins; j++) {
+            x[j] = getIntensity(row, j);
+        }
+        for (int j = 0; j < colorCodeBins; j++) {
+            x[intensityBins + j] = getColorCode(row, j);
+        }
+        for (int j = 0; j < extraBins; j++) {
+            x[intensityBins + colorCodeBins + j] = getExtra(row, j);
+        }
+        return x;
+    }
+
+    /**
+     * Imports the legacy intensity.txt and colorCode.txt files written by
+     * readImage into a feature store file.
+     * @param intensityFile the legacy intensity text file
+     * @param colorCodeFile the legacy color code text file
+     * @param file the feature store file to be written
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void importText(File intensityFile, File colorCodeFile, File file) throws IOException {
+        SortedMap<Integer, int[]> intensityRows = readText(intensityFile);
+        SortedMap<Integer, int[]> colorCodeRows = readText(colorCodeFile);
+        if (!intensityRows.keySet().equals(colorCodeRows.keySet())) {
+            throw new IOException("intensity and color code files list different images.");
+        }
+        int imageCount = intensityRows.size();
+        int[] imageNo = new int[imageCount];
+        int[] imageSize = new int[imageCount];
+        int[][] intensity = new int[imageCount][];
+        int[][] colorCode = new int[imageCount][];
+        int row = 0;
+        for (Map.Entry<Integer, int[]> entry : intensityRows.entrySet()) {
+            int[] values = entry.getValue();
+            imageNo[row] = entry.getKey();
+            imageSize[row] = values[0];
+            intensity[row] = Arrays.copyOfRange(values, 1, values.length);
+            int[] colorValues = colorCodeRows.get(entry.getKey());
+            colorCode[row] = Arrays.copyOfRange(colorValues, 1, colorValues.length);
+            row++;
+        }
+        write(file, imageNo, imageSize, intensity, colorCode);
+    }
+
+    /**
+     * Reads a legacy histogram text file into a map from image number to the
+     * image size followed by its bin counts.
+     */
+    private static SortedMap<Integer, int[]> readText(File file) throws IOException {
+        SortedMap<Integer, int[]> rows = new TreeMap<Integer, int[]>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                StringTokenizer token = new StringTokenizer(line);
+                if (!token.hasMoreTokens()) {
+                    continue;
+                }
+                int imageNo = Integer.parseInt(token.nextToken());
+                int[] values = new int[token.countTokens()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Integer.parseInt(token.nextToken());
+                }
+                rows.put(imageNo, values);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed histogram file " + file + ".", e);
+        }
+        return rows;
+    }
+
+    /**
+     * Exports this store to the legacy intensity.txt and colorCode.txt format.
+     * @param intensityFile the intensity text file to be written
+     * @param colorCodeFile the color code text file to be written
+     * @throws IOException if a file cannot be written
+     */
+    public void exportText(File intensityFile, File colorCodeFile) throws IOException {
+        writeText(intensityFile, intensity, intensityBins);
+        writeText(colorCodeFile, colorCode, colorCodeBins);
+    }
+
+    private void writeText(File file, IntBuffer bins, int binCount) throws IOException {
+        try (BufferedWriter ostream = new BufferedWriter(new FileWriter(file))) {
+            for (int row = 0; row < imageCount; row++) {
+                ostream.append(imageNo.get(row) + "");
+                ostream.append(" " + imageSize.get(row));
+                for (int j = 0; j < binCount; j++) {
+                    ostream.append(" ");
+                    ostream.append(bins.get(row * binCount + j) + "");
+                }
+                ostream.newLine();
+            }
+        }
+    }
+
+    public int getIntensityBins() {
+        return intensityBins;
+    }
+
+    public int getColorCodeBins() {
+        return colorCodeBins;
+    }
+
+    public int getImageCount() {
+        return imageCount;
+    }
+
+    /**
+     * @return the number of intensity + color code + extra features of each image
+     */
+    public int getFeatureCount() {
+        return intensityBins + colorCodeBins + extraBins;
+    }
+
+    /**
+     * @return the names of the extractors stored in addition to intensity and
+     *         color code, in the order of their features
+     */
+    public List<String> getExtraExtractors() {
+        return Arrays.asList(extraNames.clone());
+    }
+
+    /**
+     * @param extractor index of an extra extractor
+     * @return the number of bins of the extra extractor
+     */
+    public int getExtraBins(int extractor) {
+        return extraBinCounts[extractor];
+    }
+
+    /**
+     * @return the number of bins of all extra extractors
+     */
+    public int getExtraBins() {
+        return extraBins;
+    }
+
+    /**
+     * @return the pixel budget the images were decoded with, 0 if they were
+     *         decoded at full resolution
+     */
+    public int getPixelBudget() {
+        return pixelBudget;
+    }
+
+    /**
+     * @param row row of the store, from 0 to getImageCount() - 1
+     * @return the image number stored in the row
+     */
+    public int getImageNo(int row) {
+        return imageNo.get(row);
+    }
+
+    /**
+     * @param row row of the store
+     * @return the number of pixels of the image stored in the row
+     */
+    public int getImageSize(int row) {
+        return imageSize.get(row);
+    }
+
+    /**
+     * @return the raw intensity bin count of the image stored in the row
+     */
+    public int getIntensityCount(int row, int bin) {
+        return intensity.get(row * intensityBins + bin);
+    }
+
+    /**
+     * @return the raw color code bin count of the image stored in the row
+     */
+    public int getColorCodeCount(int row, int bin) {
+        return colorCode.get(row * colorCodeBins + bin);
+    }
+
+    /**
+     * @return the intensity bin count divided by the image size
+     */
+    public double getIntensity(int row, int bin) {
+        return (double) getIntensityCount(row, bin) / getImageSize(row);
+    }
+
+    /**
+     * @return the color code bin count divided by the image size
+     */
+    public double getColorCode(int row, int bin) {
+        return (double) getColorCodeCount(row, bin) / getImageSize(row);
+    }
+
+    /**
+     * @param bin bin of all extra extractors, one after the other
+     * @return the raw extra bin count of the image stored in the row
+     */
+    public int getExtraCount(int row, int bin) {
+        return extra.get(row * extraBins + bin);
+    }
+
+    /**
+     * @return the extra bin count divided by the image size
+     */
+    public double getExtra(int row, int bin) {
+        return (double) getExtraCount(row, bin) / getImageSize(row);
+    }
+
+    /**
+     * @return the mean of each intensity + color code + extra feature
+     */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * @return the standard deviation of each intensity + color code + extra feature
+     */
+    public double[] getStd() {
+        return std.clone();
+    }
+
+    /**
+     * @return the CRC-32 of the whole store file, used to tell whether files
+     *         derived from the store, such as search trees, are up to date
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * HistogramKernel class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class computes the intensity and color code histograms of an image in a
+ * single sweep over its pixels. For the common JPEG image types the pixel data
+ * is read straight from the raster's data buffer, otherwise each row of pixels
+ * is fetched with one getRGB call. Either way no object is allocated per pixel
+ * and the bin counts are exactly the ones getIntensity and getColorCode produce.
+ *
+ * Further FeatureExtractors are computed in the same sweep: the pixels are
+ * unpacked a row at a time and every row is handed to each extractor.
+ */
+public final class HistogramKernel {
+    public static final int INTENSITY_BINS = 25;
+    public static final int COLORCODE_BINS = 64;
+
+    // 0.299R, 0.587G and 0.114B for every channel value. Each product is the
+    // same double readImage.getIntensity computes, so the sums are identical.
+    private static final double[] RED_WEIGHT = new double[256];
+    private static final double[] GREEN_WEIGHT = new double[256];
+    private static final double[] BLUE_WEIGHT = new double[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            RED_WEIGHT[v] = 0.299*v;
+            GREEN_WEIGHT[v] = 0.587*v;
+            BLUE_WEIGHT[v] = 0.114*v;
+        }
+    }
+
+    private HistogramKernel() {
+    }
+
+    /**
+     * Adds the intensity and color code of every pixel in the image to the
+     * given bins.
+     * @param image the image to be histogrammed
+     * @param intensityBins 25 intensity bins to be incremented
+     * @param colorCodeBins 64 color code bins to be incremented
+     */
+    public static void extract(BufferedImage image, int[] intensityBins, int[] colorCodeBins) {
+        if (image.getColorModel().getColorSpace().isCS_sRGB()) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    if (extractInterleaved(image.getRaster(), intensityBins, colorCodeBins)) {
+                        return;
+                    }
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_ARGB:
+                    if (extractPacked(image.getRaster(), false, intensityBins, colorCodeBins)) {
+                        return;
+                    }
+                    break;
+                case BufferedImage.TYPE_INT_BGR:
+                    if (extractPacked(image.getRaster(), true, intensityBins, colorCodeBins)) {
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        extractRGB(image, intensityBins, colorCodeBins);
+    }
+
+    /**
+     * @param image an image
+     * @return the 25 intensity values followed by the 64 color code values of
+     *         the image, each bin count divided by the number of pixels
+     */
+    public static double[] features(BufferedImage image) {
+        int[] intensityBins = new int[INTENSITY_BINS];
+        int[] colorCodeBins = new int[COLORCODE_BINS];
+        extract(image, intensityBins, colorCodeBins);
+        return FeatureStore.features(intensityBins, colorCodeBins, image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * Adds the features of every pixel in the image to the bins of each
+     * extractor, in a single sweep over the pixels.
+     * @param image the image to be histogrammed
+     * @param extractors the extractors
+     * @param bins the bins of each extractor, to be incremented
+     */
+    public static void extract(BufferedImage image, List<FeatureExtractor> extractors, int[][] bins) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        RowReader reader = RowReader.of(image);
+        int[] row = new int[width];
+        int[] previous = new int[width];
+        for (int y = 0; y < height; y++) {
+            reader.read(y, row);
+            for (int e = 0; e < extractors.size(); e++) {
+                extractors.get(e).addRow(row, y == 0 ? null : previous, width, bins[e]);
+            }
+            int[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+    }
+
+    /**
+     * @param image an image
+     * @param extras extractors indexed in addition to intensity and color code
+     * @return the 25 intensity values, the 64 color code values and the values
+     *         of the extra extractors, each bin count divided by the number of pixels
+     */
+    public static double[] features(BufferedImage image, List<FeatureExtractor> extras) {
+        if (extras.isEmpty()) {
+            return features(image);
+        }
+        List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+        extractors.add(FeatureExtractors.INTENSITY);
+        extractors.add(FeatureExtractors.COLOR_CODE);
+        extractors.addAll(extras);
+        int[][] bins = new int[extractors.size()][];
+        for (int e = 0; e < bins.length; e++) {
+            bins[e] = new int[extractors.get(e).getBins()];
+        }
+        extract(image, extractors, bins);
+        int[] extra = new int[FeatureExtractors.bins(extras)];
+        for (int e = 2, offset = 0; e < bins.length; offset += bins[e].length, e++) {
+            System.arraycopy(bins[e], 0, extra, offset, bins[e].length);
+        }
+        return FeatureStore.features(bins[0], bins[1], extra, image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * @return the intensity bin of a pixel
+     */
+    static int intensityBin(int r, int g, int b) {
+        // I = 0.299R + 0.587G + 0.114B
+        double intensity = RED_WEIGHT[r] + GREEN_WEIGHT[g] + BLUE_WEIGHT[b];
+        return intensity >= 250 ? INTENSITY_BINS - 1 : (int) intensity / 10;
+    }
+
+    /**
+     * @return the color code bin of a pixel
+     */
+    static int colorCodeBin(int r, int g, int b) {
+        // the most significant 2 bits of each of the color values
+        return ((r >>> 6) << 4) + ((g >>> 6) << 2) + (b >>> 6);
+    }
+
+    /**
+     * Counts a single pixel in its intensity and color code bins.
+     */
+    private static void count(int r, int g, int b, int[] intensityBins, int[] colorCodeBins) {
+        intensityBins[intensityBin(r, g, b)]++;
+        colorCodeBins[colorCodeBin(r, g, b)]++;
+    }
+
+    /**
+     * Unpacks one row of pixels at a time to 0xRRGGBB, reading the raster's
+     * data buffer directly for the same image types as extract.
+     */
+    private abstract static class RowReader {
+        abstract void read(int y, int[] row);
+
+        static RowReader of(final BufferedImage image) {
+            final WritableRaster raster = image.getRaster();
+            final int width = raster.getWidth();
+            final int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+            final int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+            int type = image.getColorModel().getColorSpace().isCS_sRGB() ? image.getType() : -1;
+            if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && ((PixelInterleavedSampleModel) raster.getSampleModel()).getBandOffsets().length >= 3) {
+                final PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+                final DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                final byte[] data = buffer.getData();
+                final int pixelStride = sm.getPixelStride();
+                final int[] bandOffsets = sm.getBandOffsets();
+                return new RowReader() {
+                    void read(int y, int[] row) {
+                        // getOffset includes the offset of the first band
+                        int p = buffer.getOffset() + sm.getOffset(x0, y0 + y) - bandOffsets[0];
+                        for (int x = 0; x < width; x++, p += pixelStride) {
+                            row[x] = (data[p + bandOffsets[0]] & 0xFF) << 16
+                                   | (data[p + bandOffsets[1]] & 0xFF) << 8
+                                   | (data[p + bandOffsets[2]] & 0xFF);
+                        }
+                    }
+                };
+            }
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+                 || type == BufferedImage.TYPE_INT_BGR)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferInt) {
+                final SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                final DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                final int[] data = buffer.getData();
+                final boolean bgr = type == BufferedImage.TYPE_INT_BGR;
+                return new RowReader() {
+                    void read(int y, int[] row) {
+                        int p = buffer.getOffset() + sm.getOffset(x0, y0 + y);
+                        for (int x = 0; x < width; x++, p++) {
+                            int pixel = data[p];
+                            row[x] = bgr ? (pixel & 0xFF) << 16 | (pixel & 0xFF00) | ((pixel >> 16) & 0xFF)
+                                         : pixel & 0xFFFFFF;
+                        }
+                    }
+                };
+            }
+            return new RowReader() {
+                void read(int y, int[] row) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    for (int x = 0; x < width; x++) {
+                        row[x] &= 0xFFFFFF;
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads pixel-interleaved byte rasters such as TYPE_3BYTE_BGR directly.
+     * @return false if the raster layout is not supported
+     */
+    private static boolean extractInterleaved(WritableRaster raster, int[] intensityBins, int[] colorCodeBins) {
+        if (!(raster.getSampleModel() instanceof PixelInterleavedSampleModel)
+            || !(raster.getDataBuffer() instanceof DataBufferByte)) {
+            return false;
+        }
+        PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+        int[] bandOffsets = sm.getBandOffsets();
+        if (bandOffsets.length < 3) {
+            return false;
+        }
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = buffer.getData();
+        int pixelStride = sm.getPixelStride();
+        int rOffset = bandOffsets[0];
+        int gOffset = bandOffsets[1];
+        int bOffset = bandOffsets[2];
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+        int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+
+        for (int i = 0; i < height; i++) {
+            // getOffset includes the offset of the first band
+            int p = buffer.getOffset() + sm.getOffset(x0, y0 + i) - rOffset;
+            for (int j = 0; j < width; j++, p += pixelStride) {
+                count(data[p + rOffset] & 0xFF, data[p + gOffset] & 0xFF, data[p + bOffset] & 0xFF,
+                      intensityBins, colorCodeBins);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads packed int rasters such as TYPE_INT_RGB directly.
+     * @param bgr true if blue is stored in the high byte (TYPE_INT_BGR)
+     * @return false if the raster layout is not supported
+     */
+    private static boolean extractPacked(WritableRaster raster, boolean bgr, int[] intensityBins, int[] colorCodeBins) {
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+            || !(raster.getDataBuffer() instanceof DataBufferInt)) {
+            return false;
+        }
+        SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = buffer.getData();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+        int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+
+        for (int i = 0; i < height; i++) {
+            int p = buffer.getOffset() + sm.getOffset(x0, y0 + i);
+            for (int j = 0; j < width; j++, p++) {
+                int pixel = data[p];
+                int high = (pixel >> 16) & 0xFF;
+                int low = pixel & 0xFF;
+                count(bgr ? low : high, (pixel >> 8) & 0xFF, bgr ? high : low,
+                      intensityBins, colorCodeBins);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fallback for all other color models: converts one row at a time to
+     * default sRGB through getRGB.
+     */
+    private static void extractRGB(BufferedImage image, int[] intensityBins, int[] colorCodeBins) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        for (int i = 0; i < height; i++) {
+            image.getRGB(0, i, width, 1, row, 0, width);
+            for (int j = 0; j < width; j++) {
+                int rgb = row[j];
+                count((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF,
+                      intensityBins, colorCodeBins);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * HistogramTextParser class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class parses the legacy intensity.txt and colorCode.txt files written
+ * by readImage, one line per image:
+ * <pre>
+ *   imageNo imageSize count count ...
+ * </pre>
+ * The file is memory-mapped and split into chunks that start at a line, and
+ * the chunks are parsed in parallel straight from the mapped bytes into the
+ * rows of the feature matrix, without creating a String per line or token.
+ * Each value is the bin count divided by the image size, exactly as the
+ * Scanner based readers of imageSearch computed it. Every image is expected
+ * on one line only, as readImage writes them.
+ */
+public final class HistogramTextParser {
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int MAX_CHUNK_BYTES = 64 << 20;
+
+    private HistogramTextParser() {
+    }
+
+    /**
+     * Reads a legacy histogram text file.
+     * @param file the text file
+     * @param imageNo image number of each row, in increasing order; lines of
+     *                other images are skipped
+     * @param bins number of bins of each image
+     * @param threads number of threads parsing chunks of the file
+     * @return the bin counts of each row divided by its image size, zero for
+     *         images without a line
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static double[][] read(File file, final int[] imageNo, final int bins, int threads) throws IOException {
+        final double[][] matrix = new double[imageNo.length][bins];
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] starts = chunkStarts(channel, threads);
+            if (starts.length == 2) {
+                parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, starts[1]), 0, imageNo, bins, matrix);
+                return matrix;
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+            try {
+                List<Future<Void>> chunks = new ArrayList<Future<Void>>();
+                for (int c = 0; c + 1 < starts.length; c++) {
+                    final long start = starts[c];
+                    final long end = starts[c + 1];
+                    chunks.add(pool.submit(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start,
+                                  imageNo, bins, matrix);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> chunk : chunks) {
+                    chunk.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Parsing " + file + " was interrupted.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw new IOException(file + ": " + cause.getMessage(), cause);
+                }
+                throw new IOException(cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Splits the file into chunks of about equal size, each starting at the
+     * beginning of a line.
+     * @return the offsets of the chunks followed by the file size
+     */
+    private static long[] chunkStarts(FileChannel channel, int threads) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, size / Math.max(1, 4 * threads) + 1));
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long position = chunkSize;
+        while (position < size) {
+            // move to the first byte after the next line break
+            long next = -1;
+            while (next < 0 && position < size) {
+                probe.clear();
+                int n = channel.read(probe, position);
+                if (n <= 0) {
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (probe.get(i) == '\n') {
+                        next = position + i + 1;
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    position += n;
+                }
+            }
+            if (next < 0 || next >= size) {
+                break;
+            }
+            starts.add(next);
+            position = next + chunkSize;
+        }
+        long[] result = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            result[i] = starts.get(i);
+        }
+        result[starts.size()] = size;
+        return result;
+    }
+
+    /**
+     * Parses the lines of one chunk into the matrix.
+     * @param offset the file offset of the chunk's first byte
+     */
+    private static void parse(MappedByteBuffer chunk, long offset, int[] imageNo, int bins, double[][] matrix)
+    throws IOException {
+        Cursor cursor = new Cursor(chunk, offset);
+        while (cursor.skipBlanks()) {
+            if (cursor.atLineEnd()) {
+                cursor.p++;  // empty line
+                continue;
+            }
+            cursor.hasImageNo = false;
+            cursor.imageNo = cursor.nextInt();
+            cursor.hasImageNo = true;
+            int row = Arrays.binarySearch(imageNo, cursor.imageNo);
+            cursor.skipBlanks();
+            if (cursor.atLineEnd()) {
+                throw cursor.malformed("missing image size");
+            }
+            int imageSize = cursor.nextInt();
+            if (row < 0) {
+                cursor.skipLine();  // image is not in the index manifest
+                continue;
+            }
+            double[] values = matrix[row];
+            int index = 0;
+            while (cursor.skipBlanks() && !cursor.atLineEnd()) {
+                if (index == bins) {
+                    throw cursor.malformed("more than " + bins + " bins");
+                }
+                int count = cursor.nextInt();
+                values[index++] = (double) count / imageSize;
+            }
+        }
+    }
+
+    /**
+     * Reads tokens from the bytes of a chunk.
+     */
+    private static final class Cursor {
+        final ByteBuffer bytes;
+        final long offset;
+        final int limit;
+        int p;
+        int imageNo;          // image number of the current line
+        boolean hasImageNo;   // false until the image number of the current line is parsed
+
+        Cursor(ByteBuffer bytes, long offset) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.limit = bytes.limit();
+        }
+
+        /**
+         * Skips spaces, tabs and other separators except line feeds.
+         * @return false at the end of the chunk
+         */
+        boolean skipBlanks() {
+            while (p < limit) {
+                byte b = bytes.get(p);
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\f') {
+                    return true;
+                }
+                p++;
+            }
+            return false;
+        }
+
+        boolean atLineEnd() {
+            return p >= limit || bytes.get(p) == '\n';
+        }
+
+        void skipLine() {
+            while (p < limit && bytes.get(p) != '\n') {
+                p++;
+            }
+        }
+
+        /**
+         * Parses a decimal int like Integer.parseInt.
+         */
+        int nextInt() throws IOException {
+            boolean negative = false;
+            byte b = bytes.get(p);
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                p++;
+            }
+            int start = p;
+            long value = 0;
+            while (p < limit) {
+                b = bytes.get(p);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                value = value * 10 + (b - '0');
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw malformed("number out of range");
+                }
+                p++;
+            }
+            if (p == start || (p < limit && b != ' ' && b != '\t' && b != '\r' && b != '\f' && b != '\n')) {
+                throw malformed("not a number");
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw malformed("number out of range");
+            }
+            return (int) value;
+        }
+
+        IOException malformed(String reason) {
+            return new IOException("Malformed histogram line at byte " + (offset + p)
+                                   + (hasImageNo ? " (image " + imageNo + ")" : "") + ": " + reason);
+        }
+    }
+}
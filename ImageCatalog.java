@@ -0,0 +1,217 @@
+/**
+ * ImageCatalog class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class lists the image files found in any number of directories and
+ * assigns each of them a stable image number. An image keeps the number it was
+ * given in the index manifest of an earlier run. New images get numbers above
+ * the highest number the manifest ever gave out, so the number of a deleted
+ * image never comes to mean another image, e.g. to a client of SearchServer.
+ * A new image named after such a number not far above it, such as 42.jpg in a
+ * fresh index, gets that number, and all other new images get the next free
+ * numbers. Rows of the feature store are numbered by catalog position, so
+ * gaps left by deleted images cost nothing. Image numbers and paths are kept
+ * in two arrays sorted by image number, so the catalog stays compact for
+ * millions of images.
+ */
+public final class ImageCatalog {
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".bmp"};
+    private static final int NAME_MARGIN = 100;  // numbers in names honored beyond the image count
+
+    private final int[] imageNos;
+    private final String[] paths;
+    private final int highestImageNo;
+
+    private ImageCatalog(int[] imageNos, String[] paths, int highestImageNo) {
+        this.imageNos = imageNos;
+        this.paths = paths;
+        this.highestImageNo = highestImageNo;
+    }
+
+    /**
+     * Returns the directory holding the sample images: the classpath directory
+     * containing 1.jpg if there is one, otherwise the images directory.
+     * @return list with the default image directory
+     */
+    public static List<File> defaultDirectories() {
+        URL url = ImageCatalog.class.getResource("1.jpg");
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                return Collections.singletonList(new File(url.toURI()).getParentFile());
+            } catch (URISyntaxException e) {
+                // fall through to the images directory
+            }
+        }
+        return Collections.singletonList(new File("images"));
+    }
+
+    /**
+     * Lists the image files in the given directories and their subdirectories.
+     * @param directories directories to be searched for images
+     * @param manifest manifest of the previous run, used to keep image numbers stable
+     * @return the catalog of all images found
+     * @throws IOException if a directory cannot be listed
+     */
+    public static ImageCatalog scan(List<File> directories, IndexManifest manifest) throws IOException {
+        final SortedSet<String> found = new TreeSet<String>();
+        for (File directory : directories) {
+            if (!directory.isDirectory()) {
+                System.out.println("The image directory " + directory + " does not exist");
+                continue;
+            }
+            Files.walkFileTree(directory.getAbsoluteFile().toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, java.nio.file.attribute.BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isImage(file.getFileName().toString())) {
+                        found.add(file.toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        // keep the numbers of images that were indexed before
+        Map<String, Integer> previous = new HashMap<String, Integer>();
+        for (IndexManifest.Entry entry : manifest.entries()) {
+            previous.put(entry.path, entry.imageNo);
+        }
+        SortedMap<Integer, String> numbered = new TreeMap<Integer, String>();
+        List<String> unnumbered = new ArrayList<String>();
+        for (String path : found) {
+            Integer imageNo = previous.get(path);
+            if (imageNo != null) {
+                numbered.put(imageNo, path);
+            } else {
+                unnumbered.add(path);
+            }
+        }
+        Set<Integer> taken = new HashSet<Integer>(numbered.keySet());
+
+        // numbers up to the highest ever given out are never given again; new
+        // images named after a number above it keep that number, unless it is
+        // far beyond the number of images, like a date in the name
+        int highest = manifest.getHighestImageNo();
+        long largestName = (long) highest + found.size() + NAME_MARGIN;
+        Iterator<String> it = unnumbered.iterator();
+        while (it.hasNext()) {
+            String path = it.next();
+            int imageNo = numberInName(path);
+            if (imageNo > highest && imageNo <= largestName && taken.add(imageNo)) {
+                numbered.put(imageNo, path);
+                it.remove();
+            }
+        }
+
+        // all other new images get the next free numbers
+        int free = highest;
+        for (String path : unnumbered) {
+            do {
+                free++;
+            } while (taken.contains(free));
+            numbered.put(free, path);
+        }
+
+        int[] imageNos = new int[numbered.size()];
+        String[] paths = new String[numbered.size()];
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : numbered.entrySet()) {
+            imageNos[i] = entry.getKey();
+            paths[i] = entry.getValue();
+            i++;
+        }
+        int last = imageNos.length == 0 ? 0 : imageNos[imageNos.length - 1];
+        return new ImageCatalog(imageNos, paths, Math.max(highest, last));
+    }
+
+    private static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number a file such as 42.jpg is named after, or -1
+     */
+    private static int numberInName(String path) {
+        String name = new File(path).getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        if (base.isEmpty() || base.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < base.length(); i++) {
+            if (!Character.isDigit(base.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(base);
+    }
+
+    /**
+     * @return the number of images in the catalog
+     */
+    public int size() {
+        return imageNos.length;
+    }
+
+    /**
+     * @return the largest image number in the catalog, or 0 if it is empty
+     */
+    public int getMaxImageNo() {
+        return imageNos.length == 0 ? 0 : imageNos[imageNos.length - 1];
+    }
+
+    /**
+     * @return the highest image number ever given out, by this catalog or by
+     *         the runs recorded in the manifest it was scanned with
+     */
+    public int getHighestImageNo() {
+        return highestImageNo;
+    }
+
+    /**
+     * @param index position in the catalog, from 0 to size() - 1
+     * @return the image number at that position; numbers increase with position
+     */
+    public int getImageNo(int index) {
+        return imageNos[index];
+    }
+
+    /**
+     * @param index position in the catalog
+     * @return the image file at that position
+     */
+    public File getFile(int index) {
+        return new File(paths[index]);
+    }
+
+    /**
+     * @param imageNo an image number
+     * @return the position of the image with that number, or -1 if there is none
+     */
+    public int indexOf(int imageNo) {
+        int index = Arrays.binarySearch(imageNos, imageNo);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @param imageNo an image number
+     * @return the image file with that number, or null if there is none
+     */
+    public File getFileByImageNo(int imageNo) {
+        int index = Arrays.binarySearch(imageNos, imageNo);
+        return index < 0 ? null : getFile(index);
+    }
+}
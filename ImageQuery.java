@@ -0,0 +1,164 @@
+/**
+ * ImageQuery class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class searches the index for the images most similar to any image
+ * file or stream, e.g. an upload, without adding it to the index. The query
+ * image is decoded with the pixel budget the index was built with and its
+ * histograms are binned by HistogramKernel with the same extractors as the
+ * indexed images, so they are normalized by the statistics stored in the
+ * feature store.
+ *
+ * Query images are untrusted input: a small compressed file can declare a
+ * huge image. An image whose header declares more than MAX_PIXELS pixels is
+ * refused without being decoded, and one indexed at full resolution is still
+ * decoded within QUERY_PIXEL_BUDGET pixels, which changes its histograms only
+ * slightly (see ImageDecoder).
+ *
+ * Usage: java ImageQuery [-method intensity|colorCode|combined] [-k n] image ...
+ * <pre>
+ *   image TAB imageNo imageNo ...      the k most similar images, most similar first
+ *   image TAB ERROR message            if the image cannot be decoded
+ * </pre>
+ * An image given as - is read from standard input.
+ */
+public final class ImageQuery {
+    /**
+     * Most pixels the header of a query image may declare, from
+     * -DimageSearch.maxQueryPixels.
+     */
+    public static final long MAX_PIXELS = Long.getLong("imageSearch.maxQueryPixels", 1L << 28);
+    /**
+     * Pixel budget of query images if the index was built at full resolution,
+     * from -DimageSearch.queryPixelBudget.
+     */
+    public static final long QUERY_PIXEL_BUDGET = Long.getLong("imageSearch.queryPixelBudget", 1L << 24);
+
+    private final SearchEngine engine;
+    private final long pixelBudget;
+    private final List<FeatureExtractor> extras = new ArrayList<FeatureExtractor>();
+
+    /**
+     * @param engine the search engine over the index
+     * @param pixelBudget the pixel budget the index was built with, 0 for full resolution
+     * @throws IllegalArgumentException if an extractor of the index is not registered
+     */
+    public ImageQuery(SearchEngine engine, int pixelBudget) {
+        this.engine = engine;
+        this.pixelBudget = pixelBudget > 0 ? pixelBudget : QUERY_PIXEL_BUDGET;
+        for (String name : engine.getExtraExtractors()) {
+            extras.add(FeatureExtractors.forName(name));
+        }
+    }
+
+    /**
+     * @param store the feature store the engine was built from
+     */
+    public ImageQuery(SearchEngine engine, FeatureStore store) {
+        this(engine, store.getPixelBudget());
+    }
+
+    public SearchEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Computes the features of a query image.
+     * @param in the encoded image; it is read but not closed
+     * @return the 25 intensity values, the 64 color code values and the values
+     *         of the index's extra extractors, each divided by the number of
+     *         decoded pixels
+     * @throws ImageDecoder.TooLargeException if the image has more than MAX_PIXELS pixels
+     * @throws IOException if the stream cannot be read or holds no supported image
+     */
+    public double[] features(InputStream in) throws IOException {
+        Metrics.Timer decode = Metrics.start(Metrics.Phase.DECODE);
+        BufferedImage image;
+        try {
+            image = ImageDecoder.read(in, pixelBudget, MAX_PIXELS);
+        } finally {
+            decode.stop();
+        }
+        if (image == null) {
+            throw new IOException("Not a supported image");
+        }
+        Metrics.Timer histogram = Metrics.start(Metrics.Phase.HISTOGRAM);
+        double[] features = HistogramKernel.features(image, extras);
+        histogram.stop();
+        return features;
+    }
+
+    /**
+     * Finds the indexed images most similar to a query image.
+     * @param in the encoded query image; it is read but not closed
+     * @param method the features used to compare images
+     * @param featureWeights weight of each normalized feature for COMBINED, or
+     *                       null for equal weights
+     * @param k number of results
+     * @return the image numbers of the k most similar images, most similar first
+     * @throws IOException if the stream cannot be read or holds no supported image
+     */
+    public int[] search(InputStream in, SearchEngine.Method method, double[] featureWeights, int k)
+    throws IOException {
+        int[] rows = engine.top(features(in), method, featureWeights, k);
+        int[] imageNos = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            imageNos[i] = engine.getImageNo(rows[i]);
+        }
+        return imageNos;
+    }
+
+    /**
+     * Finds the indexed images most similar to a query image file.
+     * @throws IOException if the file cannot be read or is no supported image
+     */
+    public int[] search(File file, SearchEngine.Method method, double[] featureWeights, int k)
+    throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return search(in, method, featureWeights, k);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SearchEngine.Method method = SearchEngine.Method.INTENSITY;
+        int k = 20;
+        List<String> images = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-method")) {
+                method = BatchSearch.parseMethod(args[++i]);
+            } else if (args[i].equals("-k")) {
+                k = Integer.parseInt(args[++i]);
+            } else {
+                images.add(args[i]);
+            }
+        }
+        if (images.isEmpty()) {
+            System.out.println("Usage: java ImageQuery [-method intensity|colorCode|combined] [-k n] image ...");
+            System.exit(2);
+        }
+
+        FeatureStore store = FeatureStore.open(new File(FeatureStore.FILE_NAME));
+        ImageQuery query = new ImageQuery(SearchEngine.fromStore(store), store);
+        for (String image : images) {
+            long start = System.nanoTime();
+            StringBuilder line = new StringBuilder(image).append('\t');
+            try {
+                int[] imageNos = image.equals("-") ? query.search(System.in, method, null, k)
+                                                   : query.search(new File(image), method, null, k);
+                for (int i = 0; i < imageNos.length; i++) {
+                    line.append(i == 0 ? "" : " ").append(imageNos[i]);
+                }
+            } catch (IOException e) {
+                line.append("ERROR ").append(e.getMessage());
+            }
+            System.out.println(line);
+            System.err.println(image + ": " + (System.nanoTime() - start) / 1000 + " us");
+        }
+    }
+}
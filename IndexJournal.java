@@ -0,0 +1,176 @@
+/**
+ * IndexJournal class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * This class records the features of every image as soon as readImage has
+ * extracted them, so an indexing run that is interrupted leaves usable partial
+ * output behind. The next incremental run takes the features of every image
+ * in the journal whose file is unchanged instead of decoding it again. The
+ * journal is deleted once the feature store of a run has been written.
+ *
+ * The journal is a UTF-8 text file starting with its format version, the
+ * pixel budget and the extra extractors the features were extracted with,
+ * followed by one tab separated line per image:
+ * <pre>
+ *   v2  pixelBudget  extractor,extractor,...
+ *   imageNo  size  lastModified  sha256  imageSize intensity... colorCode... extra...  path
+ * </pre>
+ * The path is escaped like in the IndexManifest, so any file name survives
+ * the round trip. A line cut off by the
+ * interruption is ignored when the journal is loaded, and so is a journal of
+ * another version.
+ */
+public final class IndexJournal implements Closeable {
+    public static final String FILE_NAME = "index.journal";
+    private static final String VERSION = "v2";
+
+    /**
+     * The features of one image and the file they were extracted from.
+     */
+    public static final class Row {
+        public final IndexManifest.Entry entry;
+        public final int imageSize;
+        public final int[] intensity;
+        public final int[] colorCode;
+        public final int[] extra;
+
+        public Row(IndexManifest.Entry entry, int imageSize, int[] intensity, int[] colorCode, int[] extra) {
+            this.entry = entry;
+            this.imageSize = imageSize;
+            this.intensity = intensity;
+            this.colorCode = colorCode;
+            this.extra = extra;
+        }
+    }
+
+    private final BufferedWriter ostream;
+
+    /**
+     * Starts a new journal, replacing an existing one.
+     * @param file the journal file
+     * @param pixelBudget the pixel budget images are decoded with
+     * @param extras the extractors indexed in addition to intensity and color code
+     * @throws IOException if the file cannot be written
+     */
+    public IndexJournal(File file, int pixelBudget, List<FeatureExtractor> extras) throws IOException {
+        ostream = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        ostream.append(header(pixelBudget, extras));
+        ostream.newLine();
+        ostream.flush();
+    }
+
+    private static String header(int pixelBudget, List<FeatureExtractor> extras) {
+        StringBuilder header = new StringBuilder(VERSION).append('\t').append(pixelBudget).append('\t');
+        for (int i = 0; i < extras.size(); i++) {
+            header.append(i == 0 ? "" : ",").append(extras.get(i).getName());
+        }
+        return header.toString();
+    }
+
+    /**
+     * Appends the features of an image and flushes them to the file.
+     * @throws IOException if the journal cannot be written
+     */
+    public void append(IndexManifest.Entry entry, int imageSize, int[] intensity, int[] colorCode,
+                       int[] extra) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append(entry.imageNo).append('\t').append(entry.size).append('\t').append(entry.lastModified)
+            .append('\t').append(entry.hash).append('\t').append(imageSize);
+        for (int value : intensity) {
+            line.append(' ').append(value);
+        }
+        for (int value : colorCode) {
+            line.append(' ').append(value);
+        }
+        for (int value : extra) {
+            line.append(' ').append(value);
+        }
+        line.append('\t');
+        IndexManifest.escape(entry.path, line);
+        ostream.append(line);
+        ostream.newLine();
+        ostream.flush();
+    }
+
+    public void close() throws IOException {
+        ostream.close();
+    }
+
+    /**
+     * Loads the rows of a journal left by an interrupted run.
+     * @param file the journal file
+     * @param pixelBudget the pixel budget of this run
+     * @param extras the extractors of this run in addition to intensity and color code
+     * @param intensityBins number of intensity bins per row
+     * @param colorCodeBins number of color code bins per row
+     * @return the rows by image number, empty if there is no journal or it was
+     *         written with another pixel budget or other extractors
+     * @throws IOException if the journal exists but cannot be read
+     */
+    public static Map<Integer, Row> load(File file, int pixelBudget, List<FeatureExtractor> extras,
+                                         int intensityBins, int colorCodeBins) throws IOException {
+        Map<Integer, Row> rows = new HashMap<Integer, Row>();
+        if (!file.exists()) {
+            return rows;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(header(pixelBudget, extras))) {
+                return rows;
+            }
+            int extraBins = FeatureExtractors.bins(extras);
+            while ((line = reader.readLine()) != null) {
+                Row row = parse(line, intensityBins, colorCodeBins, extraBins);
+                if (row != null) {
+                    rows.put(row.entry.imageNo, row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the row of a journal line, or null if the line is incomplete
+     */
+    private static Row parse(String line, int intensityBins, int colorCodeBins, int extraBins) {
+        String[] fields = line.split("\t", 6);
+        if (fields.length != 6 || fields[5].isEmpty()) {
+            return null;
+        }
+        String[] counts = fields[4].split(" ");
+        if (counts.length != 1 + intensityBins + colorCodeBins + extraBins) {
+            return null;
+        }
+        String path = IndexManifest.unescape(fields[5]);
+        if (path == null) {
+            return null;
+        }
+        try {
+            IndexManifest.Entry entry = new IndexManifest.Entry(Integer.parseInt(fields[0]), path,
+                                                                Long.parseLong(fields[1]),
+                                                                Long.parseLong(fields[2]), fields[3]);
+            int[] intensity = new int[intensityBins];
+            int[] colorCode = new int[colorCodeBins];
+            int[] extra = new int[extraBins];
+            for (int j = 0; j < intensityBins; j++) {
+                intensity[j] = Integer.parseInt(counts[1 + j]);
+            }
+            for (int j = 0; j < colorCodeBins; j++) {
+                colorCode[j] = Integer.parseInt(counts[1 + intensityBins + j]);
+            }
+            for (int j = 0; j < extraBins; j++) {
+                extra[j] = Integer.parseInt(counts[1 + intensityBins + colorCodeBins + j]);
+            }
+            return new Row(entry, Integer.parseInt(counts[0]), intensity, colorCode, extra);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
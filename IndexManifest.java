@@ -0,0 +1,253 @@
+/**
+ * IndexManifest class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * This class records which image file each row of the feature store was
+ * extracted from: its path, size, modification time and a SHA-256 hash of its
+ * content. readImage compares the manifest with the files on disk so that only
+ * new or changed images are decoded again.
+ *
+ * The manifest is a UTF-8 text file starting with its format version and
+ * the highest image number ever given out, followed by one tab separated line
+ * per image:
+ * <pre>
+ *   v2  highestImageNo
+ *   imageNo  size  lastModified  sha256  path
+ * </pre>
+ * The highest image number stays when images are deleted, so their numbers
+ * are never given to other images (see ImageCatalog).
+ * Backslashes, tabs and line breaks in the path are escaped as \\, \t, \n and
+ * \r, like in the IndexJournal. A manifest without the version line was
+ * written by an older build and is read with the paths as they are.
+ */
+public final class IndexManifest {
+    public static final String FILE_NAME = "index.manifest";
+    private static final String VERSION = "v2";
+
+    /**
+     * Describes the image file a feature row was extracted from.
+     */
+    public static final class Entry {
+        public final int imageNo;
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public final String hash;
+
+        public Entry(int imageNo, String path, long size, long lastModified, String hash) {
+            this.imageNo = imageNo;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        /**
+         * @return true if the file still has the recorded path, size and
+         *         modification time, so its content is assumed unchanged
+         */
+        public boolean matches(File file) {
+            return path.equals(file.getAbsolutePath()) && size == file.length()
+                && lastModified == file.lastModified();
+        }
+    }
+
+    private final TreeMap<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+    private int highestImageNo;
+
+    /**
+     * Loads a manifest file. A missing file yields an empty manifest.
+     * @param file the manifest file
+     * @return the loaded manifest
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static IndexManifest load(File file) throws IOException {
+        IndexManifest manifest = new IndexManifest();
+        if (!file.exists()) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            boolean escaped = line != null && (line.equals(VERSION) || line.startsWith(VERSION + "\t"));
+            if (escaped) {
+                if (line.length() > VERSION.length()) {
+                    manifest.setHighestImageNo(Integer.parseInt(line.substring(VERSION.length() + 1)));
+                }
+                line = reader.readLine();
+            }
+            for (; line != null; line = reader.readLine()) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 5);
+                String path = fields.length != 5 ? null : escaped ? unescape(fields[4]) : fields[4];
+                if (path == null) {
+                    throw new IOException("Malformed manifest line: " + line);
+                }
+                manifest.put(new Entry(Integer.parseInt(fields[0]), path, Long.parseLong(fields[1]),
+                                       Long.parseLong(fields[2]), fields[3]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed manifest " + file + ".", e);
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest, replacing the file once it is completely written.
+     * @param file the manifest file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (BufferedWriter ostream = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            ostream.append(VERSION + "\t" + highestImageNo);
+            ostream.newLine();
+            StringBuilder line = new StringBuilder();
+            for (Entry entry : entries.values()) {
+                line.setLength(0);
+                line.append(entry.imageNo).append('\t').append(entry.size).append('\t').append(entry.lastModified)
+                    .append('\t').append(entry.hash).append('\t');
+                escape(entry.path, line);
+                ostream.append(line);
+                ostream.newLine();
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public synchronized Entry get(int imageNo) {
+        return entries.get(imageNo);
+    }
+
+    public synchronized void put(Entry entry) {
+        entries.put(entry.imageNo, entry);
+        highestImageNo = Math.max(highestImageNo, entry.imageNo);
+    }
+
+    public synchronized void remove(int imageNo) {
+        entries.remove(imageNo);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return a snapshot of all entries, ordered by image number
+     */
+    public synchronized List<Entry> entries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * @return the highest image number ever given out, including those of
+     *         images removed since, or 0 if none was
+     */
+    public synchronized int getHighestImageNo() {
+        return highestImageNo;
+    }
+
+    /**
+     * Raises the highest image number ever given out; a lower number is ignored.
+     */
+    public synchronized void setHighestImageNo(int imageNo) {
+        highestImageNo = Math.max(highestImageNo, imageNo);
+    }
+
+    /**
+     * Computes the SHA-256 hash of the content read from the stream.
+     * @param in the content to be hashed; it is read to the end but not closed
+     * @return the hash as lower case hex digits
+     * @throws IOException if the stream cannot be read
+     */
+    public static String hash(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        DigestInputStream dis = new DigestInputStream(in, digest);
+        byte[] buffer = new byte[8192];
+        while (dis.read(buffer) != -1) {
+            // read through the digest
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Appends the path with backslashes, tabs and line breaks escaped.
+     */
+    static void escape(String path, StringBuilder line) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            switch (c) {
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return the path of an escaped field, or null if an escape is incomplete
+     *         or unknown
+     */
+    static String unescape(String field) {
+        StringBuilder path = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\') {
+                path.append(c);
+                continue;
+            }
+            if (++i == field.length()) {
+                return null;
+            }
+            switch (field.charAt(i)) {
+                case '\\':
+                    path.append('\\');
+                    break;
+                case 't':
+                    path.append('\t');
+                    break;
+                case 'n':
+                    path.append('\n');
+                    break;
+                case 'r':
+                    path.append('\r');
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return path.toString();
+    }
+}
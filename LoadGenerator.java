@@ -0,0 +1,115 @@
+/**
+ * LoadGenerator class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class sends search requests to a running SearchServer from a number of
+ * concurrent clients and reports the throughput and latency percentiles as
+ * JSON. In the URL, {image} is replaced by an image number from 1 to -images,
+ * chosen at random for each request.
+ *
+ * Usage: java LoadGenerator [-url url] [-images n] [-clients n] [-requests n] [-warmup n]
+ */
+public final class LoadGenerator {
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080/search?image={image}&method=intensity&k=20";
+        int images = 100;
+        int clients = 16;
+        int requests = 10000;
+        int warmup = 500;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-url")) {
+                url = args[++i];
+            } else if (args[i].equals("-images")) {
+                images = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-clients")) {
+                clients = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-requests")) {
+                requests = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-warmup")) {
+                warmup = Integer.parseInt(args[++i]);
+            }
+        }
+
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(clients)).build();
+        run(client, url, images, clients, warmup);
+        long start = System.nanoTime();
+        Result result = run(client, url, images, clients, requests);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] latency = result.latency;
+        Arrays.sort(latency);
+        System.out.println(String.format(Locale.ROOT,
+            "{\"url\": \"%s\", \"clients\": %d, \"requests\": %d, \"errors\": %d, \"requestsPerSecond\": %.1f,"
+            + " \"p50Ms\": %.3f, \"p95Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+            url, clients, requests, result.errors.get(), requests / seconds,
+            percentile(latency, 0.50), percentile(latency, 0.95), percentile(latency, 0.99),
+            latency.length == 0 ? 0.0 : latency[latency.length - 1] / 1e6));
+        System.exit(0);
+    }
+
+    private static final class Result {
+        final long[] latency;
+        final AtomicInteger errors = new AtomicInteger();
+
+        Result(int requests) {
+            latency = new long[requests];
+        }
+    }
+
+    /**
+     * Sends the requests from the given number of clients, each sending its
+     * next request when the previous one was answered.
+     */
+    private static Result run(final HttpClient client, final String url, final int images, int clients,
+                              final int requests) throws InterruptedException {
+        final Result result = new Result(requests);
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        for (int c = 0; c < clients; c++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    Random random = ThreadLocalRandom.current();
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests) {
+                        String target = url.replace("{image}", Integer.toString(1 + random.nextInt(images)));
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(target)).GET().build();
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                            if (response.statusCode() != 200) {
+                                result.errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            result.errors.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        result.latency[i] = System.nanoTime() - start;
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        return result;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Metrics class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class records how long each phase of indexing and searching takes and
+ * counts indexed images and queries, so a run can be profiled without a
+ * debugger. Every phase keeps a latency histogram with one bucket per power of
+ * two nanoseconds, from which the count, mean and approximate percentiles are
+ * reported. Each timed phase is also emitted as an imageSearch.Phase JDK
+ * Flight Recorder event when a recording with that event enabled is running,
+ * e.g. with -XX:StartFlightRecording.
+ *
+ * With -DimageSearch.metricsInterval=n the metrics are printed to standard
+ * error every n seconds as one JSON object per line.
+ *
+ * Recording only updates atomic counters, so it may be called from any thread.
+ */
+public final class Metrics {
+    /**
+     * The timed phases.
+     */
+    public enum Phase {
+        DECODE,        // ImageIO decoding of an image file
+        HISTOGRAM,     // intensity and color code histograms of one image
+        WRITE_TEXT,    // writing intensity.txt or colorCode.txt
+        WRITE_STORE,   // writing features.bin
+        BUILD_TREES,   // building and saving the search trees
+        READ_TEXT,     // reading intensity.txt or colorCode.txt
+        LOAD_STORE,    // reading the features of features.bin into a search engine
+        DISTANCE,      // computing the distance of every row to a query
+        RANK,          // selecting the top ranks of a query
+        TREE_SEARCH,   // a top-K query answered by a search tree
+        PAGE           // showing a page of results in the GUI
+    }
+
+    /**
+     * The counted events.
+     */
+    public enum Counter {
+        IMAGES_INDEXED,      // images decoded and histogrammed
+        IMAGES_REUSED,       // unchanged images whose stored features were kept
+        QUERIES,             // searches of any method
+        QUERY_CACHE_HITS,    // searches answered by a cached ranking
+        QUERY_CACHE_MISSES   // searches whose ranking was not cached
+    }
+
+    private static final int BUCKETS = 64;
+    private static final long START = System.nanoTime();
+    private static final AtomicLongArray[] HISTOGRAMS = new AtomicLongArray[Phase.values().length];
+    private static final AtomicLong[] TOTAL_NANOS = new AtomicLong[Phase.values().length];
+    private static final AtomicLong[] COUNTERS = new AtomicLong[Counter.values().length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new AtomicLongArray(BUCKETS);
+            TOTAL_NANOS[i] = new AtomicLong();
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            COUNTERS[i] = new AtomicLong();
+        }
+        long interval = Long.getLong("imageSearch.metricsInterval", 0);
+        if (interval > 0) {
+            startPeriodicDump(interval, System.err);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Flight Recorder event of one timed phase.
+     */
+    @Name("imageSearch.Phase")
+    @Label("Phase")
+    @Category("imageSearch")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    /**
+     * A running measurement of one phase.
+     */
+    public static final class Timer {
+        private final Phase phase;
+        private final long start;
+        private final PhaseEvent event;
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            PhaseEvent e = new PhaseEvent();
+            if (e.isEnabled()) {
+                e.phase = phase.name();
+                e.begin();
+                this.event = e;
+            } else {
+                this.event = null;
+            }
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Ends the measurement and records it.
+         */
+        public void stop() {
+            record(phase, System.nanoTime() - start);
+            if (event != null) {
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Starts measuring a phase.
+     * @param phase the phase
+     * @return the measurement, to be stopped when the phase ends
+     */
+    public static Timer start(Phase phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Records one execution of a phase.
+     * @param phase the phase
+     * @param nanos how long it took
+     */
+    public static void record(Phase phase, long nanos) {
+        int bucket = nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+        HISTOGRAMS[phase.ordinal()].incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        TOTAL_NANOS[phase.ordinal()].addAndGet(nanos);
+    }
+
+    /**
+     * Adds one to a counter.
+     */
+    public static void count(Counter counter) {
+        COUNTERS[counter.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * @return the value of a counter
+     */
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].get();
+    }
+
+    /**
+     * @return the number of recorded executions of a phase
+     */
+    public static long count(Phase phase) {
+        AtomicLongArray histogram = HISTOGRAMS[phase.ordinal()];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += histogram.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return all metrics as one line of JSON
+     */
+    public static String snapshot() {
+        double seconds = Math.max(1e-9, (System.nanoTime() - START) / 1e9);
+        StringBuilder json = new StringBuilder("{\"uptimeSeconds\": ");
+        json.append(String.format(Locale.ROOT, "%.1f", seconds)).append(", \"counters\": {");
+        for (Counter counter : Counter.values()) {
+            long value = get(counter);
+            json.append(counter.ordinal() == 0 ? "" : ", ")
+                .append(String.format(Locale.ROOT, "\"%s\": %d, \"%sPerSecond\": %.2f",
+                                      counter, value, counter, value / seconds));
+        }
+        json.append("}, \"phases\": {");
+        boolean first = true;
+        for (Phase phase : Phase.values()) {
+            long[] buckets = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = HISTOGRAMS[phase.ordinal()].get(i);
+                count += buckets[i];
+            }
+            if (count == 0) {
+                continue;
+            }
+            json.append(first ? "" : ", ").append(String.format(Locale.ROOT,
+                "\"%s\": {\"count\": %d, \"meanMs\": %.4f, \"p50Ms\": %.4f, \"p99Ms\": %.4f, \"maxMs\": %.4f}",
+                phase, count, TOTAL_NANOS[phase.ordinal()].get() / 1e6 / count,
+                percentile(buckets, count, 0.50), percentile(buckets, count, 0.99),
+                percentile(buckets, count, 1.0)));
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the percentile, in milliseconds
+     */
+    private static double percentile(long[] buckets, long count, double p) {
+        long rank = Math.max(1, (long) Math.ceil(count * p));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return (i == 0 ? 1 : Math.pow(2, i)) / 1e6;
+            }
+        }
+        return Math.pow(2, BUCKETS - 1) / 1e6;
+    }
+
+    /**
+     * Prints a snapshot of the metrics periodically on a daemon thread.
+     * @param seconds time between two snapshots
+     * @param out receives the snapshots
+     */
+    public static void startPeriodicDump(long seconds, final PrintStream out) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                out.println(snapshot());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * PreviewCache class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import javax.imageio.ImageIO;
+
+/**
+ * This class keeps the full-resolution images of the recently previewed
+ * images. An image is decoded when it is first asked for and evicted least
+ * recently used first once the estimated size of all kept images, four bytes
+ * per pixel, exceeds the cache's budget, so the heap used for previews does
+ * not grow with the collection. The image most recently asked for is always
+ * kept, even if it alone exceeds the budget.
+ */
+public final class PreviewCache {
+    private final long maxBytes;
+    private final LinkedHashMap<File, BufferedImage> images = new LinkedHashMap<File, BufferedImage>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes estimated size the kept images may add up to
+     */
+    public PreviewCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param file an image file
+     * @return the decoded image
+     * @throws IOException if the image cannot be read
+     */
+    public BufferedImage get(File file) throws IOException {
+        synchronized (this) {
+            BufferedImage image = images.get(file);
+            if (image != null) {
+                hits++;
+                return image;
+            }
+            misses++;
+        }
+        // decode outside the lock, so cached previews are not held up
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        synchronized (this) {
+            BufferedImage previous = images.put(file, image);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += sizeOf(image);
+            Iterator<BufferedImage> eldest = images.values().iterator();
+            while (bytes > maxBytes && images.size() > 1) {
+                bytes -= sizeOf(eldest.next());
+                eldest.remove();
+            }
+        }
+        return image;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    /**
+     * @return the estimated size of the kept images in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * QueryCache class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.util.*;
+
+/**
+ * This class keeps the rankings of the most recently used queries of one
+ * SearchEngine, so flipping between the search methods for one image or paging
+ * back and forth does not compute every distance again. A query is identified
+ * by its row, its method and the feature weights derived from the relevance
+ * feedback. Rankings are evicted least recently used first once their
+ * estimated size, 16 bytes per ranked row for the distances and the rank
+ * heaps, exceeds the cache's budget, so the heap held by the cache does not
+ * grow with the collection. A ranking larger than the whole budget is not
+ * cached at all.
+ */
+public final class QueryCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Ranking> entries = new LinkedHashMap<Key, Ranking>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes estimated size the cached rankings may add up to; 0 disables the cache
+     */
+    public QueryCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Negative cache size " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param key the query
+     * @return the cached ranking of the query, or null if it is not cached
+     */
+    public synchronized Ranking get(Key key) {
+        Ranking ranking = entries.get(key);
+        if (ranking == null) {
+            misses++;
+            Metrics.count(Metrics.Counter.QUERY_CACHE_MISSES);
+        } else {
+            hits++;
+            Metrics.count(Metrics.Counter.QUERY_CACHE_HITS);
+        }
+        return ranking;
+    }
+
+    /**
+     * Caches the ranking of a query.
+     */
+    public synchronized void put(Key key, Ranking ranking) {
+        long size = sizeOf(ranking);
+        if (size > maxBytes) {
+            return;
+        }
+        Ranking previous = entries.put(key, ranking);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+        Iterator<Ranking> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(Ranking ranking) {
+        return 16L * ranking.size();
+    }
+
+    /**
+     * Drops all cached rankings.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated size of the cached rankings in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of lookups that found a cached ranking
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found no cached ranking
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized String toString() {
+        return "QueryCache[size=" + entries.size() + ", bytes=" + bytes + "/" + maxBytes + ", hits=" + hits
+            + ", misses=" + misses + "]";
+    }
+
+    /**
+     * Identifies a query: the query row, the method and the feature weights,
+     * or null weights for unweighted methods.
+     */
+    public static final class Key {
+        private final int queryRow;
+        private final SearchEngine.Method method;
+        private final double[] weights;
+        private final int hash;
+
+        /**
+         * @param weights the weights of the query; they must not be changed afterwards
+         */
+        public Key(int queryRow, SearchEngine.Method method, double[] weights) {
+            this.queryRow = queryRow;
+            this.method = method;
+            this.weights = weights;
+            this.hash = Objects.hash(queryRow, method) * 31 + Arrays.hashCode(weights);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && queryRow == other.queryRow
+                && method == other.method && Arrays.equals(weights, other.weights);
+        }
+    }
+}
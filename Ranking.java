@@ -0,0 +1,205 @@
+/**
+ * Ranking class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.util.*;
+
+/**
+ * This class ranks images from the most to the least similar by their distance
+ * to a query image. Images with equal distance are ranked by row, so the order
+ * is always deterministic. Ranks are worked out only as far as they are asked
+ * for: the first ranks are selected with a bounded max-heap, and when a later
+ * page is needed the remaining rows are put into a min-heap once and popped in
+ * order, so paging never sorts the whole collection again.
+ */
+public final class Ranking {
+    private static final int FIRST_RANKS = 64; // ranks selected by the first request
+
+    private final double[] distance;
+    private final int size;
+    private int[] ranked;      // rows of the ranks worked out so far
+    private int rankedCount;
+    private int[] heap;        // min-heap of the rows not ranked yet
+    private int heapSize;
+
+    /**
+     * Ranks the rows by the given distances.
+     * @param distance distance of each row to the query image; it must not be
+     *                 changed while the ranking is used
+     */
+    public Ranking(double[] distance) {
+        this.distance = distance;
+        this.size = distance.length;
+        this.ranked = new int[0];
+    }
+
+    private Ranking(int size) {
+        this.distance = null;
+        this.size = size;
+    }
+
+    /**
+     * @param size number of rows
+     * @return the ranking listing the rows in their natural order
+     */
+    public static Ranking natural(int size) {
+        return new Ranking(size);
+    }
+
+    /**
+     * @return the number of ranked rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param position rank, from 0 for the most similar image to size() - 1
+     * @return the row at that rank
+     */
+    public synchronized int get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Rank " + position + " of " + size);
+        }
+        if (distance == null) {
+            return position;
+        }
+        ensureRanked(position + 1);
+        return ranked[position];
+    }
+
+    /**
+     * @param position rank, from 0 for the most similar image to size() - 1
+     * @return the distance of the row at that rank
+     */
+    public double getDistance(int position) {
+        return distance == null ? 0.0 : distance[get(position)];
+    }
+
+    /**
+     * @param k number of ranks
+     * @return the rows of the first k ranks, or of all ranks if there are fewer
+     */
+    public int[] top(int k) {
+        int[] rows = new int[Math.min(k, size)];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = get(i);
+        }
+        return rows;
+    }
+
+    /**
+     * @return true if row a ranks before row b
+     */
+    private boolean before(int a, int b) {
+        int c = Double.compare(distance[a], distance[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * Works out at least the first k ranks.
+     */
+    private void ensureRanked(int k) {
+        if (k <= rankedCount) {
+            return;
+        }
+        if (rankedCount == 0 && heap == null) {
+            selectFirst(Math.max(k, Math.min(FIRST_RANKS, size)));
+            return;
+        }
+        if (heap == null) {
+            buildRemainingHeap();
+        }
+        if (ranked.length < k) {
+            ranked = Arrays.copyOf(ranked, Math.min(size, Math.max(k, ranked.length * 2)));
+        }
+        while (rankedCount < k) {
+            ranked[rankedCount++] = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, 0, false);
+        }
+    }
+
+    /**
+     * Selects the first k ranks with a bounded max-heap whose root is the
+     * worst of the best k rows seen so far.
+     */
+    private void selectFirst(int k) {
+        int[] best = new int[k];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (count < k) {
+                best[count] = row;
+                siftUp(best, count++, true);
+            } else if (before(row, best[0])) {
+                best[0] = row;
+                siftDown(best, k, 0, true);
+            }
+        }
+        // pop the max-heap from the back to get the rows in rank order
+        for (int end = count - 1; end > 0; end--) {
+            int worst = best[0];
+            best[0] = best[end];
+            best[end] = worst;
+            siftDown(best, end, 0, true);
+        }
+        ranked = best;
+        rankedCount = count;
+    }
+
+    /**
+     * Puts every row ranking after the last worked out rank into a min-heap.
+     */
+    private void buildRemainingHeap() {
+        int last = ranked[rankedCount - 1];
+        heap = new int[size - rankedCount];
+        heapSize = 0;
+        for (int row = 0; row < size; row++) {
+            if (before(last, row)) {
+                heap[heapSize++] = row;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, false);
+        }
+    }
+
+    /**
+     * @param max true for a max-heap, whose root ranks last
+     * @return true if row a belongs above row b in the heap
+     */
+    private boolean above(int a, int b, boolean max) {
+        return max ? before(b, a) : before(a, b);
+    }
+
+    private void siftUp(int[] h, int i, boolean max) {
+        int row = h[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!above(row, h[parent], max)) {
+                break;
+            }
+            h[i] = h[parent];
+            i = parent;
+        }
+        h[i] = row;
+    }
+
+    private void siftDown(int[] h, int n, int i, boolean max) {
+        int row = h[i];
+        int half = n >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < n && above(h[child + 1], h[child], max)) {
+                child++;
+            }
+            if (!above(h[child], row, max)) {
+                break;
+            }
+            h[i] = h[child];
+            i = child;
+        }
+        h[i] = row;
+    }
+}
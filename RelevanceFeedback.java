@@ -0,0 +1,191 @@
+/**
+ * RelevanceFeedback class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.util.*;
+
+/**
+ * This class keeps the images a user marked as relevant during one search
+ * session and derives the feature weights of the combined search from them.
+ * A feature's weight is one over its standard deviation among the relevant
+ * images, normalized so the weights add up to one; with fewer than two
+ * relevant images every feature has the same weight.
+ *
+ * Marking or unmarking an image adds or subtracts its Gaussian normalized
+ * features to running sums and sums of squares, so computing the weights takes
+ * time proportional to the number of features no matter how many images are
+ * relevant. The sums are kept as differences from the features of one of the
+ * relevant images, the reference, which keeps them accurate and makes a
+ * feature that is the same in all relevant images have a standard deviation
+ * of exactly zero. Unmarking the reference image moves the reference to
+ * another relevant image and recomputes the sums from the remaining ones.
+ *
+ * Instances are not thread-safe; the GUI only uses them on the event
+ * dispatch thread.
+ */
+public final class RelevanceFeedback {
+    private final SearchEngine engine;
+    private final int features;
+    private final BitSet relevantRows;
+    private final double[] reference;  // features of the reference row
+    private int referenceRow = -1;
+    private final double[] sum;        // sum of differences from the reference
+    private final double[] sumOfSquares;
+    private final int[] differing;     // relevant images that differ from the reference
+    private int count;
+
+    /**
+     * @param engine the search engine whose rows are marked
+     */
+    public RelevanceFeedback(SearchEngine engine) {
+        this.engine = engine;
+        this.features = engine.getFeatureCount();
+        this.relevantRows = new BitSet(engine.getImageCount());
+        this.reference = new double[features];
+        this.sum = new double[features];
+        this.sumOfSquares = new double[features];
+        this.differing = new int[features];
+    }
+
+    /**
+     * Marks a row as relevant; marking a relevant row again has no effect.
+     */
+    public void mark(int row) {
+        if (relevantRows.get(row)) {
+            return;
+        }
+        double[] x = engine.normalizedRow(row);
+        if (count == 0) {
+            System.arraycopy(x, 0, reference, 0, features);
+            referenceRow = row;
+        }
+        relevantRows.set(row);
+        count++;
+        update(x, 1);
+    }
+
+    /**
+     * Marks a row as not relevant; unmarking a row that is not relevant has no effect.
+     */
+    public void unmark(int row) {
+        if (!relevantRows.get(row)) {
+            return;
+        }
+        relevantRows.clear(row);
+        count--;
+        if (count == 0) {
+            clear();
+            return;
+        }
+        if (row == referenceRow) {
+            rebase();
+            return;
+        }
+        update(engine.normalizedRow(row), -1);
+    }
+
+    /**
+     * Makes the first relevant row the reference and recomputes the sums from
+     * all relevant rows.
+     */
+    private void rebase() {
+        referenceRow = relevantRows.nextSetBit(0);
+        System.arraycopy(engine.normalizedRow(referenceRow), 0, reference, 0, features);
+        Arrays.fill(sum, 0.0);
+        Arrays.fill(sumOfSquares, 0.0);
+        Arrays.fill(differing, 0);
+        for (int row = relevantRows.nextSetBit(0); row >= 0; row = relevantRows.nextSetBit(row + 1)) {
+            update(engine.normalizedRow(row), 1);
+        }
+    }
+
+    private void update(double[] x, int sign) {
+        for (int col = 0; col < features; col++) {
+            double d = x[col] - reference[col];
+            if (d != 0) {
+                sum[col] += sign * d;
+                sumOfSquares[col] += sign * d * d;
+                differing[col] += sign;
+            }
+        }
+    }
+
+    /**
+     * Marks no row as relevant.
+     */
+    public void clear() {
+        relevantRows.clear();
+        count = 0;
+        referenceRow = -1;
+        Arrays.fill(sum, 0.0);
+        Arrays.fill(sumOfSquares, 0.0);
+        Arrays.fill(differing, 0);
+    }
+
+    public boolean isRelevant(int row) {
+        return relevantRows.get(row);
+    }
+
+    /**
+     * @return the number of relevant rows
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return a copy of the relevant rows
+     */
+    public BitSet getRelevantRows() {
+        return (BitSet) relevantRows.clone();
+    }
+
+    /**
+     * Computes the weight of each normalized intensity + color code feature.
+     * @return the weight of each feature
+     */
+    public double[] weights() {
+        double[] updatedWeight = new double[features];
+        if (count < 2) { // use equal weight
+            Arrays.fill(updatedWeight, 1.0/features);
+            return updatedWeight;
+        }
+
+        // standard deviation of each feature between relevant images
+        double[] std = new double[features];
+        for (int col = 0; col < features; col++) {
+            if (differing[col] != 0) {
+                double squares = sumOfSquares[col] - sum[col]*sum[col]/count;
+                std[col] = Math.sqrt(Math.max(0.0, squares)/(count-1));
+            }
+        }
+
+        // find the min non-zero std value
+        double minSTD = Double.MAX_VALUE;
+        for (double value: std) {
+            minSTD = (value == 0) ? minSTD : Math.min(minSTD, value);
+        }
+
+        double sumOfWeight = 0.0;
+        for (int i = 0; i < features; i++) {
+            if (std[i] == 0) {
+                // every relevant image has the same value
+                if (reference[i] + sum[i]/count == 0) {
+                    updatedWeight[i] = 0.0;
+                } else {
+                    std[i] = 0.5 * minSTD;
+                    updatedWeight[i] = 1/std[i];
+                }
+            } else {
+                updatedWeight[i] = 1/std[i];
+            }
+            sumOfWeight+=updatedWeight[i];
+        }
+
+        for (int i = 0; i < features; i++) {
+            updatedWeight[i] = updatedWeight[i]/sumOfWeight;
+        }
+        return updatedWeight;
+    }
+}
@@ -0,0 +1,621 @@
+/**
+ * SearchEngine class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class retrieves the images most similar to a query image without any
+ * GUI. Images are compared by the L1 distance of their intensity or color code
+ * histograms, or by the weighted L1 distance of their Gaussian normalized
+ * intensity + color code features. For the combined method, relevant images
+ * picked by the user give each feature a weight of one over its standard
+ * deviation among the relevant images.
+ *
+ * All features are kept once, unnormalized, in a single FeatureMatrix that the
+ * three methods read through views. Since Gaussian normalization only shifts
+ * and scales each feature, the combined distance is computed on the stored
+ * values with each weight divided by the feature's standard deviation.
+ *
+ * Features of the extra FeatureExtractors a store was indexed with follow
+ * the intensity and color code features. They are part of the combined
+ * method and of relevance feedback, and each can be searched on its own with
+ * searchFeature.
+ *
+ * Top-K intensity and color code queries (top, used by BatchSearch,
+ * SearchServer and ImageQuery) are answered by vantage-point trees built at
+ * index time, when they are available and the features are kept as doubles;
+ * -DimageSearch.bruteForce=true scans all rows instead. The GUI pages through
+ * the whole ranking with search, which always scans all rows.
+ *
+ * Each engine keeps the rankings of its recent queries in its own QueryCache,
+ * bounded by -DimageSearch.queryCacheBytes (default 64 MB, 0 disables it), so
+ * engines over different features never share or evict each other's rankings.
+ *
+ * Rows are numbered from 0 in increasing image number. A SearchEngine is never
+ * changed after it is constructed, so any number of threads may search it at
+ * the same time. A search whose thread is interrupted stops scanning and
+ * throws a CancellationException.
+ */
+public final class SearchEngine {
+    /**
+     * The features used to compare images.
+     */
+    public enum Method { INTENSITY, COLOR_CODE, COMBINED }
+
+    public static final String INTENSITY_TREE_FILE = "intensity.vpt";
+    public static final String COLOR_CODE_TREE_FILE = "colorCode.vpt";
+
+    /**
+     * True if top-K queries always scan all rows instead of using the trees.
+     */
+    public static final boolean BRUTE_FORCE = Boolean.getBoolean("imageSearch.bruteForce");
+
+    private static final long QUERY_CACHE_BYTES = Long.getLong("imageSearch.queryCacheBytes", 64L << 20);
+
+    private final int[] imageNo;
+    private final FeatureMatrix features;
+    private final FeatureMatrix.View intensityView;
+    private final FeatureMatrix.View colorCodeView;
+    private final FeatureMatrix.View combinedView;
+    private final int intensityBins;
+    private final int colorCodeBins;
+    private final String[] extraExtractors;  // names of the extra extractors, in feature order
+    private final FeatureMatrix.View[] extraViews;
+    private final double[] meanOfFeatures;
+    private final double[] stdOfFeatures;
+    private final VpTree intensityTree;  // null if not available
+    private final VpTree colorCodeTree;  // null if not available
+    private final QueryCache queryCache = new QueryCache(QUERY_CACHE_BYTES);
+
+    /**
+     * Constructs a search engine over the given features.
+     * @param imageNo image number of each row, in increasing order
+     * @param intensityMatrix intensity bin values of each row, divided by the image size
+     * @param colorCodeMatrix color code bin values of each row, divided by the image size
+     */
+    public SearchEngine(int[] imageNo, double[][] intensityMatrix, double[][] colorCodeMatrix) {
+        this(imageNo, combine(intensityMatrix, colorCodeMatrix), FeatureMatrix.Precision.DOUBLE);
+    }
+
+    /**
+     * Constructs a search engine over the given features.
+     * @param imageNo image number of each row, in increasing order
+     * @param features the 25 intensity values followed by the 64 color code
+     *                 values of each row, each divided by the image size
+     * @param precision how the features are kept in memory
+     */
+    public SearchEngine(int[] imageNo, FeatureMatrix features, FeatureMatrix.Precision precision) {
+        this(imageNo, features.quantize(precision), statsOf(features), new String[0], new int[0], null, null);
+    }
+
+    /**
+     * @param features the features in the precision they are kept in memory
+     */
+    private SearchEngine(int[] imageNo, FeatureMatrix features,
+                         FeatureStats stats, String[] extraExtractors, int[] extraBins,
+                         VpTree intensityTree, VpTree colorCodeTree) {
+        this.imageNo = imageNo.clone();
+        this.intensityBins = HistogramKernel.INTENSITY_BINS;
+        this.colorCodeBins = HistogramKernel.COLORCODE_BINS;
+        this.meanOfFeatures = stats.getMean();
+        this.stdOfFeatures = stats.getStd();
+        this.features = features;
+        this.intensityView = this.features.view(0, intensityBins);
+        this.colorCodeView = this.features.view(intensityBins, colorCodeBins);
+        this.combinedView = this.features.view(0, this.features.getDims());
+        this.extraExtractors = extraExtractors.clone();
+        this.extraViews = new FeatureMatrix.View[extraBins.length];
+        for (int i = 0, offset = intensityBins + colorCodeBins; i < extraBins.length; offset += extraBins[i], i++) {
+            extraViews[i] = this.features.view(offset, extraBins[i]);
+        }
+        // the trees hold distances between unquantized features
+        boolean exact = features.getPrecision() == FeatureMatrix.Precision.DOUBLE;
+        this.intensityTree = exact ? intensityTree : null;
+        this.colorCodeTree = exact ? colorCodeTree : null;
+    }
+
+    private static FeatureMatrix combine(double[][] intensityMatrix, double[][] colorCodeMatrix) {
+        int intensityBins = HistogramKernel.INTENSITY_BINS;
+        int colorCodeBins = HistogramKernel.COLORCODE_BINS;
+        FeatureMatrix features = new FeatureMatrix(intensityMatrix.length, intensityBins + colorCodeBins);
+        for (int row = 0; row < intensityMatrix.length; row++) {
+            for (int j = 0; j < intensityBins; j++) {
+                features.set(row, j, intensityMatrix[row][j]);
+            }
+            for (int j = 0; j < colorCodeBins; j++) {
+                features.set(row, intensityBins + j, colorCodeMatrix[row][j]);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Constructs a search engine over the features of a feature store.
+     * @param store the feature store
+     * @return the search engine
+     */
+    public static SearchEngine fromStore(FeatureStore store) {
+        return fromStore(store, FeatureMatrix.Precision.DOUBLE);
+    }
+
+    /**
+     * Constructs a search engine over the features of a feature store, using
+     * the search trees written for that store if they are up to date.
+     * @param store the feature store
+     * @param precision how the features are kept in memory
+     * @return the search engine
+     */
+    public static SearchEngine fromStore(FeatureStore store, FeatureMatrix.Precision precision) {
+        VpTree intensityTree = null;
+        VpTree colorCodeTree = null;
+        long checksum = store.checksum();
+        if (precision == FeatureMatrix.Precision.DOUBLE) {
+            try {
+                intensityTree = VpTree.load(new File(INTENSITY_TREE_FILE), store.getIntensityBins(),
+                                            store.getImageCount(), checksum);
+                colorCodeTree = VpTree.load(new File(COLOR_CODE_TREE_FILE), store.getColorCodeBins(),
+                                            store.getImageCount(), checksum);
+            } catch (IOException e) {
+                System.out.println("Failed to read the search trees, all rows are scanned instead.");
+            }
+        }
+        // the store keeps the normalization statistics computed at index time
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.LOAD_STORE);
+        FeatureStats stats = FeatureStats.of(store.getMean(), store.getStd(), store.getImageCount());
+        int[] extraBins = new int[store.getExtraExtractors().size()];
+        for (int i = 0; i < extraBins.length; i++) {
+            extraBins[i] = store.getExtraBins(i);
+        }
+        SearchEngine engine = new SearchEngine(readImageNos(store), readFeatures(store, precision), stats,
+                                               store.getExtraExtractors().toArray(new String[0]), extraBins,
+                                               intensityTree, colorCodeTree);
+        timer.stop();
+        return engine;
+    }
+
+    /**
+     * Builds the intensity and color code search trees for a feature store and
+     * writes them next to it.
+     * @param store the feature store
+     * @throws IOException if a tree file cannot be written
+     */
+    public static void writeTrees(FeatureStore store) throws IOException {
+        FeatureMatrix features = readFeatures(store, FeatureMatrix.Precision.DOUBLE);
+        long checksum = store.checksum();
+        FeatureMatrix.View intensity = features.view(0, store.getIntensityBins());
+        FeatureMatrix.View colorCode = features.view(store.getIntensityBins(), store.getColorCodeBins());
+        VpTree.build(intensity).save(new File(INTENSITY_TREE_FILE), intensity.getDims(), checksum);
+        VpTree.build(colorCode).save(new File(COLOR_CODE_TREE_FILE), colorCode.getDims(), checksum);
+    }
+
+    private static int[] readImageNos(FeatureStore store) {
+        int[] imageNo = new int[store.getImageCount()];
+        for (int row = 0; row < imageNo.length; row++) {
+            imageNo[row] = store.getImageNo(row);
+        }
+        return imageNo;
+    }
+
+    /**
+     * Reads the intensity, color code and extra values of each row of the
+     * store straight into the given precision, so a quantized engine never
+     * holds the features as doubles.
+     */
+    private static FeatureMatrix readFeatures(final FeatureStore store, FeatureMatrix.Precision precision) {
+        final int intensityBins = store.getIntensityBins();
+        final int colorCodeBins = store.getColorCodeBins();
+        return FeatureMatrix.read(new FeatureMatrix.Source() {
+            public double get(int row, int j) {
+                if (j < intensityBins) {
+                    return store.getIntensity(row, j);
+                }
+                j -= intensityBins;
+                return j < colorCodeBins ? store.getColorCode(row, j) : store.getExtra(row, j - colorCodeBins);
+            }
+        }, store.getImageCount(), store.getFeatureCount(), precision);
+    }
+
+    /**
+     * Computes the mean and std of each feature for Gaussian Normalization.
+     */
+    private static FeatureStats statsOf(FeatureMatrix matrix) {
+        FeatureStats stats = new FeatureStats(matrix.getDims());
+        double[] x = new double[matrix.getDims()];
+        for (int row = 0; row < matrix.getRows(); row++) {
+            for (int col = 0; col < x.length; col++) {
+                x[col] = matrix.get(row, col);
+            }
+            stats.add(x);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the Gaussian normalized value of feature col of the row; the
+     *         stored features themselves are never normalized in place
+     */
+    private double normalized(int row, int col) {
+        double value = features.get(row, col);
+        if (stdOfFeatures[col] != 0) {
+            value = (value - meanOfFeatures[col])/stdOfFeatures[col];
+        }
+        return value;
+    }
+
+    /**
+     * @return the Gaussian normalized intensity + color code + extra features of the row
+     */
+    public double[] normalizedRow(int row) {
+        double[] x = new double[getFeatureCount()];
+        for (int col = 0; col < x.length; col++) {
+            x[col] = normalized(row, col);
+        }
+        return x;
+    }
+
+    /**
+     * @return the number of intensity + color code + extra features of each image
+     */
+    public int getFeatureCount() {
+        return features.getDims();
+    }
+
+    /**
+     * @return the names of the extractors whose features follow the intensity
+     *         and color code features
+     */
+    public List<String> getExtraExtractors() {
+        return Arrays.asList(extraExtractors.clone());
+    }
+
+    /**
+     * @return the number of images that can be searched
+     */
+    public int getImageCount() {
+        return imageNo.length;
+    }
+
+    /**
+     * @param row row of an image
+     * @return the image number of the row
+     */
+    public int getImageNo(int row) {
+        return imageNo[row];
+    }
+
+    /**
+     * @param imageNo an image number
+     * @return the row of the image, or -1 if it is not indexed
+     */
+    public int rowOf(int imageNo) {
+        int row = Arrays.binarySearch(this.imageNo, imageNo);
+        return row < 0 ? -1 : row;
+    }
+
+    /**
+     * Ranks all images by their similarity to the query image.
+     * @param queryRow row of the query image
+     * @param method the features used to compare images
+     * @return the ranking of all rows
+     */
+    public Ranking search(int queryRow, Method method) {
+        return search(queryRow, method, null);
+    }
+
+    /**
+     * Ranks all images by their similarity to the query image.
+     * @param queryRow row of the query image
+     * @param method the features used to compare images
+     * @param relevantRows rows the user marked as relevant, used to weight the
+     *                     features of the combined method; null or fewer than
+     *                     two rows give every feature the same weight
+     * @return the ranking of all rows
+     */
+    public Ranking search(int queryRow, Method method, BitSet relevantRows) {
+        if (queryRow < 0 || queryRow >= imageNo.length) {
+            throw new IllegalArgumentException("No image in row " + queryRow);
+        }
+        return rank(queryRow, method, method == Method.COMBINED ? weights(relevantRows) : null, true);
+    }
+
+    /**
+     * Ranks all images by their combined similarity to the query image, with
+     * feature weights from a RelevanceFeedback session.
+     * @param queryRow row of the query image
+     * @param featureWeights weight of each normalized intensity + color code + extra feature
+     * @return the ranking of all rows
+     */
+    public Ranking searchCombined(int queryRow, double[] featureWeights) {
+        if (queryRow < 0 || queryRow >= imageNo.length) {
+            throw new IllegalArgumentException("No image in row " + queryRow);
+        }
+        if (featureWeights.length != getFeatureCount()) {
+            throw new IllegalArgumentException("Expected " + getFeatureCount() + " weights");
+        }
+        return rank(queryRow, Method.COMBINED, featureWeights.clone(), true);
+    }
+
+    /**
+     * Ranks all images by their similarity to the query image in the features
+     * of one extractor.
+     * @param queryRow row of the query image
+     * @param extractor name of the extractor: intensity, colorCode or an extra one
+     * @return the ranking of all rows
+     */
+    public Ranking searchFeature(int queryRow, String extractor) {
+        if (extractor.equals(FeatureExtractors.INTENSITY.getName())) {
+            return search(queryRow, Method.INTENSITY);
+        } else if (extractor.equals(FeatureExtractors.COLOR_CODE.getName())) {
+            return search(queryRow, Method.COLOR_CODE);
+        }
+        int index = Arrays.asList(extraExtractors).indexOf(extractor);
+        if (index < 0) {
+            throw new IllegalArgumentException("No features of extractor " + extractor);
+        }
+        if (queryRow < 0 || queryRow >= imageNo.length) {
+            throw new IllegalArgumentException("No image in row " + queryRow);
+        }
+        Metrics.count(Metrics.Counter.QUERIES);
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.DISTANCE);
+        Ranking ranking = new Ranking(distances(extraViews[index], queryRow, null));
+        timer.stop();
+        return ranking;
+    }
+
+    /**
+     * Ranks all rows by their distance to the query row.
+     * @param cached true to look the ranking up in and add it to the query cache
+     */
+    private Ranking rank(int queryRow, Method method, double[] featureWeights, boolean cached) {
+        double[] weights = storedWeights(method, featureWeights);
+        Metrics.count(Metrics.Counter.QUERIES);
+        QueryCache.Key key = null;
+        if (cached) {
+            key = new QueryCache.Key(queryRow, method, weights);
+            Ranking ranking = queryCache.get(key);
+            if (ranking != null) {
+                return ranking;
+            }
+        }
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.DISTANCE);
+        Ranking ranking = new Ranking(distances(view(method), queryRow, weights));
+        timer.stop();
+        if (cached) {
+            queryCache.put(key, ranking);
+        }
+        return ranking;
+    }
+
+    /**
+     * Ranks all images by their similarity to an image that is not indexed,
+     * e.g. one uploaded by a client. The index is not changed.
+     * @param queryFeatures the 25 intensity values, the 64 color code values
+     *                      and the extra values of the query image, each
+     *                      divided by its size
+     * @param method the features used to compare images
+     * @param featureWeights weight of each normalized feature for COMBINED, or
+     *                       null for equal weights
+     * @return the ranking of all rows
+     */
+    public Ranking search(double[] queryFeatures, Method method, double[] featureWeights) {
+        if (queryFeatures.length != getFeatureCount()) {
+            throw new IllegalArgumentException("Expected " + getFeatureCount() + " features");
+        }
+        double[] weights = null;
+        if (method == Method.COMBINED) {
+            weights = featureWeights == null ? weights((BitSet) null) : featureWeights.clone();
+        }
+        weights = storedWeights(method, weights);
+        FeatureMatrix.View view = view(method);
+        int offset = method == Method.COLOR_CODE ? intensityBins : 0;
+        double[] query = Arrays.copyOfRange(queryFeatures, offset, offset + view.getDims());
+        double[] distance = new double[imageNo.length];
+        Metrics.count(Metrics.Counter.QUERIES);
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.DISTANCE);
+        view.distances(query, weights, distance);
+        timer.stop();
+        return new Ranking(distance);
+    }
+
+    private FeatureMatrix.View view(Method method) {
+        return method == Method.INTENSITY ? intensityView
+             : method == Method.COLOR_CODE ? colorCodeView : combinedView;
+    }
+
+    /**
+     * @param featureWeights weights of the normalized features for COMBINED,
+     *                       changed here to apply to the stored features
+     * @return the weights applying to the stored features, null for unweighted methods
+     */
+    private double[] storedWeights(Method method, double[] featureWeights) {
+        double[] weights = featureWeights;
+        if (method == Method.COMBINED) {
+            for (int j = 0; j < weights.length; j++) {
+                if (stdOfFeatures[j] != 0) {
+                    weights[j] = weights[j]/stdOfFeatures[j];
+                }
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * @return the cache of recent query rankings, e.g. for its hit and miss counts
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Finds the k images most similar to the query image. Intensity and color
+     * code queries use the search trees unless BRUTE_FORCE is set. Unlike
+     * search, the top methods never go through the query cache: batch and
+     * server queries are rarely repeated, and threads running them in parallel
+     * would only contend for the cache and evict each other's rankings.
+     * @param queryRow row of the query image
+     * @param method the features used to compare images
+     * @param relevantRows rows the user marked as relevant, or null
+     * @param k number of ranks
+     * @return the rows of the first k ranks
+     */
+    public int[] top(int queryRow, Method method, BitSet relevantRows, int k) {
+        return top(queryRow, method, relevantRows, k, !BRUTE_FORCE);
+    }
+
+    /**
+     * Finds the k images most similar to the query image.
+     * @param queryRow row of the query image
+     * @param method the features used to compare images
+     * @param relevantRows rows the user marked as relevant, or null
+     * @param k number of ranks
+     * @param useTree false to scan all rows even if a search tree is available
+     * @return the rows of the first k ranks
+     */
+    public int[] top(int queryRow, Method method, BitSet relevantRows, int k, boolean useTree) {
+        VpTree tree = null;
+        FeatureMatrix.View view = null;
+        if (method == Method.INTENSITY) {
+            tree = intensityTree;
+            view = intensityView;
+        } else if (method == Method.COLOR_CODE) {
+            tree = colorCodeTree;
+            view = colorCodeView;
+        }
+        if (queryRow < 0 || queryRow >= imageNo.length) {
+            throw new IllegalArgumentException("No image in row " + queryRow);
+        }
+        if (!useTree || tree == null) {
+            return top(rank(queryRow, method, method == Method.COMBINED ? weights(relevantRows) : null, false), k);
+        }
+        Metrics.count(Metrics.Counter.QUERIES);
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.TREE_SEARCH);
+        int[] rows = tree.nearest(view, view.row(queryRow), k);
+        timer.stop();
+        return rows;
+    }
+
+    /**
+     * Finds the k images most similar to an image that is not indexed, e.g.
+     * one uploaded by a client. Intensity and color code queries use the
+     * search trees unless BRUTE_FORCE is set. The index is not changed.
+     * @param queryFeatures the 25 intensity values, the 64 color code values
+     *                      and the extra values of the query image, each
+     *                      divided by its size
+     * @param method the features used to compare images
+     * @param featureWeights weight of each normalized feature for COMBINED, or
+     *                       null for equal weights
+     * @param k number of ranks
+     * @return the rows of the first k ranks
+     */
+    public int[] top(double[] queryFeatures, Method method, double[] featureWeights, int k) {
+        VpTree tree = method == Method.INTENSITY ? intensityTree
+                    : method == Method.COLOR_CODE ? colorCodeTree : null;
+        if (BRUTE_FORCE || tree == null) {
+            return top(search(queryFeatures, method, featureWeights), k);
+        }
+        if (queryFeatures.length != getFeatureCount()) {
+            throw new IllegalArgumentException("Expected " + getFeatureCount() + " features");
+        }
+        FeatureMatrix.View view = view(method);
+        int offset = method == Method.COLOR_CODE ? intensityBins : 0;
+        double[] query = Arrays.copyOfRange(queryFeatures, offset, offset + view.getDims());
+        Metrics.count(Metrics.Counter.QUERIES);
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.TREE_SEARCH);
+        int[] rows = tree.nearest(view, query, k);
+        timer.stop();
+        return rows;
+    }
+
+    /**
+     * Finds the k images most similar to the query image by the combined
+     * method, with feature weights from a RelevanceFeedback session, without
+     * going through the query cache.
+     * @param queryRow row of the query image
+     * @param featureWeights weight of each normalized intensity + color code + extra feature
+     * @param k number of ranks
+     * @return the rows of the first k ranks
+     */
+    public int[] topCombined(int queryRow, double[] featureWeights, int k) {
+        if (queryRow < 0 || queryRow >= imageNo.length) {
+            throw new IllegalArgumentException("No image in row " + queryRow);
+        }
+        if (featureWeights.length != getFeatureCount()) {
+            throw new IllegalArgumentException("Expected " + getFeatureCount() + " weights");
+        }
+        return top(rank(queryRow, Method.COMBINED, featureWeights.clone(), false), k);
+    }
+
+    private static int[] top(Ranking ranking, int k) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.RANK);
+        int[] rows = ranking.top(k);
+        timer.stop();
+        return rows;
+    }
+
+    /**
+     * @return true if a search tree answers top-K queries of the method
+     */
+    public boolean hasTree(Method method) {
+        return (method == Method.INTENSITY ? intensityTree
+                : method == Method.COLOR_CODE ? colorCodeTree : null) != null;
+    }
+
+    /**
+     * Ranks all images by their similarity to the query image.
+     * @param queryImageNo image number of the query image
+     * @param method the features used to compare images
+     * @param relevantImageNos image numbers the user marked as relevant, or null
+     * @param k number of ranks to return
+     * @return the image numbers of the first k ranks
+     */
+    public int[] searchByImageNo(int queryImageNo, Method method, Collection<Integer> relevantImageNos, int k) {
+        int queryRow = rowOf(queryImageNo);
+        if (queryRow < 0) {
+            throw new IllegalArgumentException("Image " + queryImageNo + " is not indexed");
+        }
+        BitSet relevantRows = null;
+        if (relevantImageNos != null) {
+            relevantRows = new BitSet(imageNo.length);
+            for (int relevantImageNo : relevantImageNos) {
+                int row = rowOf(relevantImageNo);
+                if (row >= 0) {
+                    relevantRows.set(row);
+                }
+            }
+        }
+        int[] rows = top(queryRow, method, relevantRows, k);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = imageNo[rows[i]];
+        }
+        return rows;
+    }
+
+    /**
+     * Computes the (weighted) L1 distance of every row to the query row.
+     * @param weights weight of each feature, or null for unweighted distances
+     */
+    private double[] distances(FeatureMatrix.View view, int queryRow, double[] weights) {
+        double[] distance = new double[imageNo.length];
+        view.distances(view.row(queryRow), weights, distance);
+        return distance;
+    }
+
+    /**
+     * Computes the weight of each normalized intensity + color code feature,
+     * as a RelevanceFeedback session with the given rows marked would.
+     * @param relevantRows rows marked as relevant, or null
+     * @return the weight of each feature
+     */
+    public double[] weights(BitSet relevantRows) {
+        RelevanceFeedback feedback = new RelevanceFeedback(this);
+        if (relevantRows != null) {
+            for (int i = relevantRows.nextSetBit(0); i >= 0; i = relevantRows.nextSetBit(i + 1)) {
+                feedback.mark(i);
+            }
+        }
+        return feedback.weights();
+    }
+}
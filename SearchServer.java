@@ -0,0 +1,321 @@
+/**
+ * SearchServer class
+ * @author Jingjing Dong
+ * @date
+ */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class serves searches over HTTP, so other services can use the same
+ * retrieval as the GUI. All requests share one read-only SearchEngine; a
+ * request's query image, method and relevant images live only in that
+ * request, so concurrent requests never see each other's state.
+ *
+ * Endpoints, all answering JSON with the image numbers of the k most similar
+ * images, most similar first:
+ * <pre>
+ *   GET  /search?image=n&amp;method=intensity|colorCode|combined&amp;k=20
+ *   POST /search/upload?method=...&amp;k=20          body: an image file, not indexed (see ImageQuery)
+ *   GET  /search/feedback?image=n&amp;relevant=a,b,c&amp;k=20
+ * </pre>
+ * The feedback search is the combined method with features weighted by the
+ * given relevant images, like a feedback iteration in the GUI.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21
+ * and later), and otherwise on a fixed pool of platform threads.
+ *
+ * Usage: java SearchServer [-port n]
+ */
+public final class SearchServer {
+    private static final int MAX_UPLOAD_BYTES = 32 << 20;
+    private static final int DEFAULT_K = 20;
+
+    private final SearchEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param engine the search engine shared by all requests
+     * @param store the feature store the engine was built from, whose pixel
+     *              budget uploaded images are decoded with
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public SearchServer(SearchEngine engine, FeatureStore store, int port) throws IOException {
+        this(new ImageQuery(engine, store), port);
+    }
+
+    /**
+     * @param query searches the shared search engine for uploaded images
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public SearchServer(final ImageQuery query, int port) throws IOException {
+        this.engine = query.getEngine();
+        enableNoDelay();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/search", new Handler() {
+            String handle(HttpExchange exchange, Map<String, String> params) {
+                requireMethod(exchange, "GET");
+                int queryImageNo = requiredIntParam(params, "image");
+                SearchEngine.Method method = method(params);
+                return results(queryImageNo, method,
+                               engine.searchByImageNo(indexed(queryImageNo), method, null, k(params)));
+            }
+        });
+        server.createContext("/search/upload", new Handler() {
+            String handle(HttpExchange exchange, Map<String, String> params) throws IOException {
+                requireMethod(exchange, "POST");
+                SearchEngine.Method method = method(params);
+                int k = k(params);
+                byte[] body = readBody(exchange);
+                int[] imageNos;
+                try {
+                    imageNos = query.search(new ByteArrayInputStream(body), method, null, k);
+                } catch (ImageDecoder.TooLargeException e) {
+                    throw new RequestException(413, e.getMessage());
+                } catch (IOException e) {
+                    throw new RequestException(400, "Body is not a supported image");
+                }
+                return results(-1, method, imageNos);
+            }
+        });
+        server.createContext("/search/feedback", new Handler() {
+            String handle(HttpExchange exchange, Map<String, String> params) {
+                requireMethod(exchange, "GET");
+                int queryImageNo = requiredIntParam(params, "image");
+                RelevanceFeedback feedback = new RelevanceFeedback(engine);
+                String relevant = params.get("relevant");
+                if (relevant != null && !relevant.isEmpty()) {
+                    for (String value : relevant.split(",")) {
+                        feedback.mark(engine.rowOf(indexed(parseInt("relevant", value.trim()))));
+                    }
+                }
+                int[] rows = engine.topCombined(engine.rowOf(indexed(queryImageNo)), feedback.weights(), k(params));
+                return results(queryImageNo, SearchEngine.Method.COMBINED, imageNos(rows));
+            }
+        });
+    }
+
+    /**
+     * Turns on TCP_NODELAY for the JDK's HTTP server unless it was configured
+     * on the command line; without it every small response waits for a
+     * delayed ACK (~40 ms). The JDK reads the property once, when the first
+     * HttpServer is created, so it is set here rather than when this class
+     * is loaded, which would change it for every user of the class's helpers.
+     */
+    private static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task if the JVM
+     *         supports them, otherwise a pool of platform threads
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to a second for running ones.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * A request that cannot be answered, with its HTTP status.
+     */
+    private static final class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Parses the query parameters, runs the endpoint and writes its JSON
+     * answer or error.
+     */
+    private abstract static class Handler implements HttpHandler {
+        abstract String handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            String body;
+            try {
+                body = handle(exchange, params(exchange.getRequestURI().getRawQuery()));
+            } catch (RequestException e) {
+                status = e.status;
+                body = error(e.getMessage());
+            } catch (RuntimeException e) {
+                // the details stay in the server's log, not in the answer to the client
+                System.out.println("Request " + exchange.getRequestURI() + " failed: " + e);
+                status = 500;
+                body = error("Internal server error");
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+            throw new RequestException(405, "Use " + method);
+        }
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Parameter " + name + " is not a number");
+        }
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        return value == null ? defaultValue : parseInt(name, value);
+    }
+
+    private static int requiredIntParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new RequestException(400, "Missing parameter " + name);
+        }
+        return parseInt(name, value);
+    }
+
+    private static int k(Map<String, String> params) {
+        int k = intParam(params, "k", DEFAULT_K);
+        if (k < 1) {
+            throw new RequestException(400, "Parameter k must be positive");
+        }
+        return k;
+    }
+
+    private static SearchEngine.Method method(Map<String, String> params) {
+        String name = params.get("method");
+        if (name == null) {
+            return SearchEngine.Method.INTENSITY;
+        }
+        try {
+            return BatchSearch.parseMethod(name);
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the image number if it is indexed
+     */
+    private int indexed(int imageNo) {
+        if (engine.rowOf(imageNo) < 0) {
+            throw new RequestException(404, "Image " + imageNo + " is not indexed");
+        }
+        return imageNo;
+    }
+
+    private int[] imageNos(int[] rows) {
+        int[] imageNos = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            imageNos[i] = engine.getImageNo(rows[i]);
+        }
+        return imageNos;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+                if (body.size() > MAX_UPLOAD_BYTES) {
+                    throw new RequestException(413, "Image is larger than " + MAX_UPLOAD_BYTES + " bytes");
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static String results(int queryImageNo, SearchEngine.Method method, int[] imageNos) {
+        StringBuilder json = new StringBuilder("{");
+        if (queryImageNo >= 0) {
+            json.append("\"image\": ").append(queryImageNo).append(", ");
+        }
+        json.append("\"method\": \"").append(method).append("\", \"results\": [");
+        for (int i = 0; i < imageNos.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(imageNos[i]);
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\": \"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            }
+        }
+        FeatureStore store = FeatureStore.open(new File(FeatureStore.FILE_NAME));
+        SearchEngine engine = SearchEngine.fromStore(store);
+        SearchServer server = new SearchServer(engine, store, port);
+        server.start();
+        System.out.println("Serving " + engine.getImageCount() + " images on port " + server.getPort() + ".");
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * ThumbnailService class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+/**
+ * This class provides the scaled-down images shown on the result pages. A
+ * thumbnail is made only when its page is shown or about to be shown: it is
+ * read from the on-disk thumbnail cache if an earlier run already scaled the
+ * image, and otherwise the image is decoded, subsampled by ImageDecoder to a
+ * few times the thumbnail's pixels, and scaled on a background thread and then
+ * written to the cache. The most recently used thumbnails are also kept in
+ * memory, so paging back and forth does not read them again.
+ *
+ * At most capacity loads wait for a loader thread, and cancelPending drops
+ * the waiting ones, so when the user pages quickly only the thumbnails of the
+ * page now shown are decoded instead of a growing backlog of skipped pages.
+ *
+ * A cached thumbnail is named after the image's path, size, modification time
+ * and the thumbnail size, so a changed image is scaled again.
+ */
+public final class ThumbnailService {
+    public static final String CACHE_DIRECTORY = "thumbnails";
+
+    /**
+     * Receives a thumbnail on the event dispatch thread once it is loaded.
+     */
+    public interface Listener {
+        /**
+         * @param file the image file
+         * @param thumbnail the thumbnail, or null if the image cannot be read
+         */
+        void thumbnailLoaded(File file, BufferedImage thumbnail);
+    }
+
+    private final int width;
+    private final int height;
+    private final File cacheDirectory;
+    private final ThreadPoolExecutor loader;
+    private final Map<File, BufferedImage> recent;                  // LRU, guarded by this
+    private final Map<File, List<Listener>> pending = new HashMap<File, List<Listener>>();  // guarded by this
+
+    /**
+     * @param width width of the thumbnails
+     * @param height height of the thumbnails
+     * @param cacheDirectory directory of the on-disk cache, created if needed
+     * @param capacity number of thumbnails kept in memory, and of loads
+     *                 waiting for a loader thread
+     */
+    public ThumbnailService(int width, int height, File cacheDirectory, final int capacity) {
+        this.width = width;
+        this.height = height;
+        this.cacheDirectory = cacheDirectory;
+        this.recent = new LinkedHashMap<File, BufferedImage>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<File, BufferedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.loader = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+                                             new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)),
+                                             new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "thumbnail-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the thumbnail of the image if it is in memory, otherwise null
+     */
+    public synchronized BufferedImage getLoaded(File file) {
+        return recent.get(file);
+    }
+
+    /**
+     * Loads the thumbnail of an image in the background. If capacity loads
+     * are already waiting, the request is dropped and can be made again.
+     * @param file the image file
+     * @param listener notified on the event dispatch thread, or null to only
+     *                 prefetch the thumbnail
+     */
+    public synchronized void load(File file, Listener listener) {
+        BufferedImage thumbnail = recent.get(file);
+        if (thumbnail != null) {
+            if (listener != null) {
+                notifyLater(file, thumbnail, Collections.singletonList(listener));
+            }
+            return;
+        }
+        List<Listener> listeners = pending.get(file);
+        if (listeners != null) {  // already being loaded
+            if (listener != null) {
+                listeners.add(listener);
+            }
+            return;
+        }
+        listeners = new ArrayList<Listener>();
+        if (listener != null) {
+            listeners.add(listener);
+        }
+        try {
+            loader.execute(new Load(file));
+            pending.put(file, listeners);
+        } catch (RejectedExecutionException e) {
+            // the queue is full or the service is shut down
+        }
+    }
+
+    /**
+     * Drops the loads that are still waiting for a loader thread, e.g. those
+     * of a page that is no longer shown. Loads already running are finished.
+     */
+    public synchronized void cancelPending() {
+        List<Runnable> dropped = new ArrayList<Runnable>();
+        loader.getQueue().drainTo(dropped);
+        for (Runnable load : dropped) {
+            pending.remove(((Load) load).file);
+        }
+    }
+
+    /**
+     * Reads or makes the thumbnail of one image on a loader thread.
+     */
+    private final class Load implements Runnable {
+        final File file;
+
+        Load(File file) {
+            this.file = file;
+        }
+
+        public void run() {
+            BufferedImage thumbnail = null;
+            try {
+                thumbnail = readThumbnail(file);
+            } catch (IOException e) {
+                System.out.println("Failed to read the image " + file + ".");
+            } catch (RuntimeException e) {
+                // decoders of corrupt images throw e.g. ArrayIndexOutOfBoundsException
+                System.out.println("Failed to read the image " + file + ": " + e);
+            } finally {
+                // even after an Error, so later loads of the file are not ignored
+                finish(thumbnail);
+            }
+        }
+
+        private void finish(BufferedImage thumbnail) {
+            List<Listener> listeners;
+            synchronized (ThumbnailService.this) {
+                listeners = pending.remove(file);
+                if (thumbnail != null) {
+                    recent.put(file, thumbnail);
+                }
+            }
+            if (listeners != null) {
+                notifyLater(file, thumbnail, listeners);
+            }
+        }
+    }
+
+    private static void notifyLater(final File file, final BufferedImage thumbnail, final List<Listener> listeners) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.thumbnailLoaded(file, thumbnail);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the thumbnail from the disk cache, or scales the image and adds
+     * the thumbnail to the cache.
+     */
+    private BufferedImage readThumbnail(File file) throws IOException {
+        File cached = new File(cacheDirectory, cacheName(file));
+        if (cached.exists()) {
+            BufferedImage thumbnail = ImageIO.read(cached);
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+        // decode no more than needed for smooth scaling to the thumbnail size
+        BufferedImage image;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            image = ImageDecoder.read(in, 4L * width * height);
+        }
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.drawImage(image.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        writeCached(cached, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Writes a thumbnail to the disk cache; a thumbnail that cannot be cached
+     * is simply scaled again next time.
+     */
+    private void writeCached(File cached, BufferedImage thumbnail) {
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            return;
+        }
+        File temp = new File(cacheDirectory, cached.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            if (ImageIO.write(thumbnail, "png", temp) && temp.renameTo(cached)) {
+                return;
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to cache the thumbnail " + cached + ".");
+        }
+        temp.delete();
+    }
+
+    private String cacheName(File file) throws IOException {
+        String key = file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified()
+                     + "\n" + width + "x" + height;
+        return IndexManifest.hash(new ByteArrayInputStream(key.getBytes(StandardCharsets.UTF_8))) + ".png";
+    }
+
+    /**
+     * Stops loading thumbnails that were not started yet.
+     */
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+}
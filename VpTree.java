@@ -0,0 +1,315 @@
+/**
+ * VpTree class
+ * @author Jingjing Dong
+ * @date
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class is a vantage-point tree answering exact k-nearest-neighbour
+ * queries under the L1 distance over one view of the feature matrix. Results
+ * are ordered by distance and then by row, exactly like Ranking, so a tree
+ * query returns the same rows as ranking a full scan.
+ *
+ * The tree is stored implicitly in two arrays. A node covers a range [lo, hi)
+ * of the row permutation: rows[lo] is its vantage point, the rows in
+ * [lo + 1, mid) are at most radius[lo] away from it and the rows in [mid, hi)
+ * are at least radius[lo] away from it, with mid = lo + 1 + (hi - lo - 1) / 2.
+ *
+ * Tree file layout (little endian): magic, version, dims, row count, checksum
+ * of the feature store it was built from, then rows int[n] and radius double[n].
+ */
+public final class VpTree {
+    public static final int MAGIC = 0x56505431; // "VPT1"
+    public static final int VERSION = 1;
+
+    private final int[] rows;
+    private final double[] radius;
+
+    private VpTree(int[] rows, double[] radius) {
+        this.rows = rows;
+        this.radius = radius;
+    }
+
+    /**
+     * Builds a tree over all rows of a view.
+     * @param view the features to be indexed
+     * @return the tree
+     */
+    public static VpTree build(FeatureMatrix.View view) {
+        int n = view.getRows();
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        double[] radius = new double[n];
+        build(view, rows, radius, new double[n], 0, n);
+        return new VpTree(rows, radius);
+    }
+
+    private static void build(FeatureMatrix.View view, int[] rows, double[] radius, double[] d, int lo, int hi) {
+        while (hi - lo > 1) {
+            double[] vantage = view.row(rows[lo]);
+            for (int i = lo + 1; i < hi; i++) {
+                d[i] = view.distance(vantage, rows[i]);
+            }
+            // split the other rows at the median distance to the vantage point
+            int mid = lo + 1 + (hi - lo - 1) / 2;
+            if (mid > lo + 1) {
+                select(rows, d, lo + 1, hi, mid - 1);
+            }
+            radius[lo] = mid > lo + 1 ? d[mid - 1] : d[lo + 1];
+            build(view, rows, radius, d, lo + 1, mid);
+            lo = mid;
+        }
+    }
+
+    /**
+     * Rearranges the rows in [from, to) and their distances in place so that
+     * position k holds the row it would hold if they were sorted by distance,
+     * no row before it is farther and no row after it is nearer.
+     */
+    private static void select(int[] rows, double[] d, int from, int to, int k) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            // median of three as the pivot
+            int m = (lo + hi) >>> 1;
+            if (d[m] < d[lo]) {
+                swap(rows, d, m, lo);
+            }
+            if (d[hi] < d[lo]) {
+                swap(rows, d, hi, lo);
+            }
+            if (d[hi] < d[m]) {
+                swap(rows, d, hi, m);
+            }
+            double pivot = d[m];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (d[i] < pivot) {
+                    i++;
+                }
+                while (d[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(rows, d, i++, j--);
+                }
+            }
+            // [lo, j] is at most pivot, [i, hi] at least pivot, anything between equals it
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] rows, double[] d, int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        double t = d[a];
+        d[a] = d[b];
+        d[b] = t;
+    }
+
+    /**
+     * @return the number of indexed rows
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Finds the k rows nearest to the query.
+     * @param view the features the tree was built over
+     * @param query query vector
+     * @param k number of rows to find
+     * @return the nearest rows, ordered by distance and then by row
+     */
+    public int[] nearest(FeatureMatrix.View view, double[] query, int k) {
+        k = Math.min(k, rows.length);
+        if (k <= 0) {
+            return new int[0];
+        }
+        Candidates best = new Candidates(k);
+        search(view, query, 0, rows.length, best);
+        return best.sorted();
+    }
+
+    private void search(FeatureMatrix.View view, double[] query, int lo, int hi, Candidates best) {
+        while (lo < hi) {
+            int vantage = rows[lo];
+            double d = view.distance(query, vantage);
+            best.offer(vantage, d);
+            if (hi - lo == 1) {
+                return;
+            }
+            int mid = lo + 1 + (hi - lo - 1) / 2;
+            double mu = radius[lo];
+            // inside rows are at least d - mu away, outside rows at least mu - d
+            if (d <= mu) {
+                search(view, query, lo + 1, mid, best);
+                if (mu - d > best.bound()) {
+                    return;
+                }
+                lo = mid;
+            } else {
+                if (mid < hi) {
+                    search(view, query, mid, hi, best);
+                }
+                if (d - mu > best.bound()) {
+                    return;
+                }
+                hi = mid;
+                lo = lo + 1;
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap of the best rows found so far.
+     */
+    private static final class Candidates {
+        private final int[] rows;
+        private final double[] dist;
+        private int count;
+
+        Candidates(int k) {
+            rows = new int[k];
+            dist = new double[k];
+        }
+
+        /**
+         * @return the distance a row must not exceed to enter the heap
+         */
+        double bound() {
+            return count < rows.length ? Double.POSITIVE_INFINITY : dist[0];
+        }
+
+        private boolean worse(double da, int a, double db, int b) {
+            int c = Double.compare(da, db);
+            return c > 0 || (c == 0 && a > b);
+        }
+
+        void offer(int row, double d) {
+            if (count < rows.length) {
+                int i = count++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!worse(d, row, dist[parent], rows[parent])) {
+                        break;
+                    }
+                    rows[i] = rows[parent];
+                    dist[i] = dist[parent];
+                    i = parent;
+                }
+                rows[i] = row;
+                dist[i] = d;
+            } else if (worse(dist[0], rows[0], d, row)) {
+                siftDown(row, d, count);
+            }
+        }
+
+        private void siftDown(int row, double d, int n) {
+            int i = 0;
+            while (2 * i + 1 < n) {
+                int child = 2 * i + 1;
+                if (child + 1 < n && worse(dist[child + 1], rows[child + 1], dist[child], rows[child])) {
+                    child++;
+                }
+                if (!worse(dist[child], rows[child], d, row)) {
+                    break;
+                }
+                rows[i] = rows[child];
+                dist[i] = dist[child];
+                i = child;
+            }
+            rows[i] = row;
+            dist[i] = d;
+        }
+
+        int[] sorted() {
+            int[] result = new int[count];
+            for (int end = count - 1; end >= 0; end--) {
+                result[end] = rows[0];
+                int lastRow = rows[end];
+                double lastDist = dist[end];
+                siftDown(lastRow, lastDist, end);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Saves the tree.
+     * @param file the tree file
+     * @param dims number of dimensions of the indexed view
+     * @param checksum checksum of the feature store the tree was built from
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file, int dims, long checksum) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(24 + rows.length * 12).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(dims).putInt(rows.length).putLong(checksum);
+        for (int row : rows) {
+            buffer.putInt(row);
+        }
+        for (double value : radius) {
+            buffer.putDouble(value);
+        }
+        buffer.flip();
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads a tree if it was built from the given feature store.
+     * @param file the tree file
+     * @param dims number of dimensions of the indexed view
+     * @param rowCount number of rows of the feature store
+     * @param checksum checksum of the feature store
+     * @return the tree, or null if the file is missing or out of date
+     * @throws IOException if the file cannot be read
+     */
+    public static VpTree load(File file, int dims, int rowCount, long checksum) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 24 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+            || buffer.getInt() != dims || buffer.getInt() != rowCount || buffer.getLong() != checksum
+            || buffer.remaining() != rowCount * 12L) {
+            return null;
+        }
+        int[] rows = new int[rowCount];
+        double[] radius = new double[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = buffer.getInt();
+        }
+        for (int i = 0; i < rowCount; i++) {
+            radius[i] = buffer.getDouble();
+        }
+        return new VpTree(rows, radius);
+    }
+}
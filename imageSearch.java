@@ -4,13 +4,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
@@ -25,6 +28,10 @@ import javax.swing.*;
  * retrieve results. The relevant feedback process can continue as several
  * iteration as user wants.
  *
+ * Searches and indexing run on background threads; only their results are
+ * shown on the event dispatch thread, so the window stays responsive. A new
+ * search cancels the one still running, whose result is then never shown.
+ *
  * @author Jingjing Dong
  * @date 07/23/2014
  */
@@ -32,7 +39,7 @@ public class imageSearch extends JFrame {
     // constants
     private static final int BORDER = 12;  // Window border in pixels.
     private static final int GAP    = 5;   // Default gap btwn components.
-    private static final int NUMBER_OF_IMAGES = 100;
+    private static final int PAGE_SIZE = 20;
     private static final int INTENSITY_BIN = 25;
     private static final int COLOR_CODE_BIN = 64;
     private static final int RESULT_IMAGE_HEIGHT = 60;
@@ -53,14 +60,23 @@ public class imageSearch extends JFrame {
     JButton previous;
     JButton next;
     JButton clear;
-    JButton [] imageButton;
-    JCheckBox [] relevant;
+    JProgressBar searchProgress;  // busy while a search is running
+    JButton [] imageButton; // buttons of the images on the current page
+    JCheckBox [] relevant;  // relevant check boxes of the images on the current page
+    
+    // retrieves similar images from the intensity and colorCode features
+    private SearchEngine engine;
+    private Ranking buttonOrder; // keeps up with the image order
+    private SwingWorker<Ranking, Void> currentSearch;  // the latest search, or null
+    private ThumbnailService thumbnails;  // thumbnails of the result pages
+    private PreviewCache previews;        // full images of recently previewed images
     
-    // 2-D array to store intensity, colorCode and intensity plus colorCode featuers
-    private double [][] intensityMatrix;
-    private double [][] colorCodeMatrix;
-    private double [][] intensityColorCodeMatrix;
-    private int [] buttonOrder; //creates an array to keep up with the image order
+    // indexed images, numbered by row from 0
+    private int numberOfImages;
+    private int [] imageNo;         // image number of each row
+    private File [] imageFile;      // image file of each row
+    private int [] pageRow;         // row shown by each button on the current page
+    private RelevanceFeedback feedback;  // rows marked as relevant
     
     int picNo;
     int imageCount; //keeps up with the number of images displayed since the first page.
@@ -68,9 +84,42 @@ public class imageSearch extends JFrame {
     int relevantCount;
     
     /**
-     * Constructs imageSearch object which contains GUI elements.
+     * The indexed images and the search engine over their features. Mapping
+     * and checking the feature store and reading the features take a while for
+     * a large collection, so the index is loaded before the GUI is built and
+     * off the event dispatch thread.
+     */
+    static final class Index {
+        final int [] imageNo;         // image number of each row
+        final File [] imageFile;      // image file of each row
+        final SearchEngine engine;
+        
+        Index(int[] imageNo, File[] imageFile, SearchEngine engine) {
+            this.imageNo = imageNo;
+            this.imageFile = imageFile;
+            this.engine = engine;
+        }
+    }
+    
+    /**
+     * Constructs imageSearch object which contains GUI elements, loading the
+     * index on the calling thread.
      */
     public imageSearch() {
+        this(loadIndex());
+    }
+    
+    /**
+     * Constructs imageSearch object which contains GUI elements.
+     * @param index the index loaded by loadIndex
+     */
+    imageSearch(Index index) {
+        imageNo = index.imageNo;
+        imageFile = index.imageFile;
+        numberOfImages = imageNo.length;
+        engine = index.engine;
+        feedback = new RelevanceFeedback(engine);
+        
         // initialize GUI elements
         mainPanel = new JPanel(new GridLayout(2,1));
         bottomPanel = new JPanel(new GridBagLayout());
@@ -86,30 +135,33 @@ public class imageSearch extends JFrame {
         previous = new JButton("Prev");
         next = new JButton("Next");
         clear = new JButton("Clear");
-        imageButton = new JButton[NUMBER_OF_IMAGES];
-        relevant = new JCheckBox[NUMBER_OF_IMAGES];
+        searchProgress = new JProgressBar();
+        searchProgress.setStringPainted(true);
+        searchProgress.setString("");
+        imageButton = new JButton[PAGE_SIZE];
+        relevant = new JCheckBox[PAGE_SIZE];
         
         // initialize variables
-        intensityMatrix = new double [NUMBER_OF_IMAGES + 1][INTENSITY_BIN];
-        colorCodeMatrix = new double [NUMBER_OF_IMAGES + 1][COLOR_CODE_BIN];
-        intensityColorCodeMatrix = new double [NUMBER_OF_IMAGES + 1][INTENSITY_BIN + COLOR_CODE_BIN];
-        buttonOrder = new int [NUMBER_OF_IMAGES];
+        buttonOrder = Ranking.natural(numberOfImages);
+        pageRow = new int [PAGE_SIZE];
         picNo = 0;
         imageCount = 0;
         pageNo = 0;
         relevantCount = 0;
         
-        // initialize image buttons, relevant check boxes, and button order.
-        for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-            ImageIcon icon = new ImageIcon(getClass().getResource((i+1) + ".jpg"));
-            ImageIcon newIcon = new ImageIcon(icon.getImage().getScaledInstance(
-                                                                                RESULT_IMAGE_WIDTH, RESULT_IMAGE_HEIGHT, java.awt.Image.SCALE_SMOOTH));
-            imageButton[i] = new JButton(newIcon);
-            imageButton[i].addActionListener(new IconButtonHandler(i, icon));
+        thumbnails = new ThumbnailService(RESULT_IMAGE_WIDTH, RESULT_IMAGE_HEIGHT,
+                                          new File(ThumbnailService.CACHE_DIRECTORY), 4 * PAGE_SIZE);
+        
+        previews = new PreviewCache(Long.getLong("imageSearch.previewCacheBytes", 64L << 20));
+        
+        // initialize the image buttons and relevant check boxes of one page;
+        // they are filled with the images of whichever page is shown
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            imageButton[i] = new JButton();
+            imageButton[i].addActionListener(new IconButtonHandler(i));
             relevant[i] = new JCheckBox("relevant");
             relevant[i].setPreferredSize(new Dimension(RESULT_IMAGE_WIDTH, 15));
-            relevant[i].addItemListener(new relevantHandler());
-            buttonOrder[i] = i;
+            relevant[i].addItemListener(new relevantHandler(i));
         }
         
         // add Listners for buttons and check boxes
@@ -127,10 +179,45 @@ public class imageSearch extends JFrame {
         super.setTitle("imageSearch");
         super.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         super.setLocationRelativeTo(null);  // center window
+    }
+    
+    /**
+     * Loads the index: finds the rows of the feature store, or of the index
+     * manifest if there is no feature store, the image file of each row, and
+     * reads in the intensity and color code data.
+     * @return the index
+     */
+    static Index loadIndex() {
+        FeatureStore store = openFeatureStore();
+        IndexManifest manifest;
+        try {
+            manifest = IndexManifest.load(new File(IndexManifest.FILE_NAME));
+        } catch (IOException e) {
+            System.out.println("Failed to read the index manifest " + IndexManifest.FILE_NAME);
+            manifest = new IndexManifest();
+        }
+        List<IndexManifest.Entry> entries = manifest.entries();
+        int numberOfImages = store != null ? store.getImageCount() : entries.size();
+        int [] imageNo = new int [numberOfImages];
+        File [] imageFile = new File [numberOfImages];
+        for (int row = 0; row < numberOfImages; row++) {
+            imageNo[row] = store != null ? store.getImageNo(row) : entries.get(row).imageNo;
+            IndexManifest.Entry entry = manifest.get(imageNo[row]);
+            if (entry != null) {
+                imageFile[row] = new File(entry.path);
+            } else {
+                imageFile[row] = new File(ImageCatalog.defaultDirectories().get(0), imageNo[row] + ".jpg");
+            }
+        }
         
         // read in intensity and color code data
-        readIntensityFile();
-        readColorCodeFile();
+        SearchEngine engine;
+        if (store != null) {
+            engine = SearchEngine.fromStore(store, FeatureMatrix.configuredPrecision());
+        } else {
+            engine = new SearchEngine(imageNo, readIntensityFile(imageNo), readColorCodeFile(imageNo));
+        }
+        return new Index(imageNo, imageFile, engine);
     }
     
     /**
@@ -151,6 +238,7 @@ public class imageSearch extends JFrame {
         buttonsPanel.add(previous);
         buttonsPanel.add(next);
         buttonsPanel.add(clear);
+        buttonsPanel.add(searchProgress);
         upperPanel.add(imagePanel);
         upperPanel.add(buttonsPanel);
         
@@ -195,38 +283,62 @@ public class imageSearch extends JFrame {
      * image is not a relevant image to query image.
      */
     private class relevantHandler implements ItemListener{
+        int slot;
+        
+        relevantHandler(int i) {
+            slot = i;
+        }
+        
         @Override
         public void itemStateChanged(ItemEvent e) {
             int state = e.getStateChange();
-            JCheckBox source = (JCheckBox) e.getItemSelectable();
             if (state == ItemEvent.SELECTED) { // add as a relevant result
-                source.setSelected(true);
+                feedback.mark(pageRow[slot]);
             } else {
-                source.setSelected(false);
+                feedback.unmark(pageRow[slot]);
             }
         }
     }
     
     /**
-     * This class implements an ActionListener for each iconButton.
-     * When an icon button is clicked, the image on the
-     * the button is added to the photographLabel and the picNo is set to the
-     * image number selected and being displayed.
+     * This class implements an ActionListener for each iconButton on a page.
+     * When an icon button is clicked, the full image shown on the button is
+     * loaded and added to the photographLabel and the picNo is set to the
+     * row of the image selected and being displayed.
      */
     private class IconButtonHandler implements ActionListener{
-        int pNo = 1;
-        ImageIcon iconUsed;
+        int slot;
         
-        IconButtonHandler(int i, ImageIcon j){
-            pNo = i;
-            iconUsed = j;  //sets the icon to the one used in the button
+        IconButtonHandler(int i){
+            slot = i;  // position of the button on the page
         }
         
         public void actionPerformed(ActionEvent e){
+            final int pNo = pageRow[slot];
             imageLabel.setPreferredSize(new Dimension(600,300));
-            imageLabel.setIcon(iconUsed);
-            imageLabel.setText("Image " + (pNo+1));
+            imageLabel.setText("Image " + imageNo[pNo]);
             picNo = pNo;
+            new SwingWorker<BufferedImage, Void>() {
+                @Override
+                protected BufferedImage doInBackground() throws IOException {
+                    return previews.get(imageFile[pNo]);
+                }
+                
+                @Override
+                protected void done() {
+                    if (picNo != pNo) {
+                        return;  // another image was selected meanwhile
+                    }
+                    try {
+                        imageLabel.setIcon(new ImageIcon(get()));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ex) {
+                        imageLabel.setIcon(null);
+                        System.out.println("Failed to read the image " + imageFile[pNo] + ".");
+                    }
+                }
+            }.execute();
         }
     }
     
@@ -259,8 +371,7 @@ public class imageSearch extends JFrame {
     private class nextHandler implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            int endImage = imageCount + 20;
-            if(endImage <= NUMBER_OF_IMAGES){
+            if(imageCount < numberOfImages){
                 pageNo++;
                 if (!relevance.isSelected()) {
                     addImagesOnly(pageNo);
@@ -285,39 +396,7 @@ public class imageSearch extends JFrame {
     private class intensityHandler implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            double [] distance = new double [NUMBER_OF_IMAGES];
-            double d = 0.0;
-            int pic = picNo;
-            
-            // calculate distance
-            for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                for (int j = 0; j < INTENSITY_BIN; j++) {
-                    d += Math.abs(intensityMatrix[pic+1][j] -
-                                  intensityMatrix[i+1][j]);
-                }
-                distance[i] = d;
-                d = 0.0;
-            }
-            
-            // re-order buttons
-            double[] sortedD = Arrays.copyOf(distance, NUMBER_OF_IMAGES);
-            Arrays.sort(sortedD);
-            for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                for (int j = 0; j < NUMBER_OF_IMAGES; j++) {
-                    if (sortedD[i] == distance[j]) {
-                        buttonOrder[i] = j;
-                    }
-                }
-            }
-            imageCount = 0;
-            pageNo = 0;
-            if (!relevance.isSelected()) {
-                addImagesOnly(pageNo);
-            } else {
-                addRelevant(pageNo);
-            }
-            bottomPanel.revalidate();
-            bottomPanel.repaint();
+            startSearch(picNo, SearchEngine.Method.INTENSITY, null);
         }
     }
     
@@ -332,38 +411,7 @@ public class imageSearch extends JFrame {
     private class colorCodeHandler implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            double [] distance = new double [NUMBER_OF_IMAGES];
-            double d = 0.0;
-            int pic = picNo;
-            
-            // calculate distance
-            for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                for (int j = 0; j < COLOR_CODE_BIN; j++) {
-                    d += Math.abs(colorCodeMatrix[pic+1][j] - colorCodeMatrix[i+1][j]);
-                }
-                distance[i] = d;
-                d = 0.0;
-            }
-            
-            // re-order buttons
-            double[] sortedD = Arrays.copyOf(distance, NUMBER_OF_IMAGES);
-            Arrays.sort(sortedD);
-            for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                for (int j = 0; j < NUMBER_OF_IMAGES; j++) {
-                    if (sortedD[i] == distance[j]) {
-                        buttonOrder[i] = j;
-                    }
-                }
-            }
-            imageCount = 0;
-            pageNo = 0;
-            if (!relevance.isSelected()) {
-                addImagesOnly(pageNo);
-            } else {
-                addRelevant(pageNo);
-            }
-            bottomPanel.revalidate();
-            bottomPanel.repaint();
+            startSearch(picNo, SearchEngine.Method.COLOR_CODE, null);
         }
     }
     
@@ -374,143 +422,84 @@ public class imageSearch extends JFrame {
      * image selected. The selected image's bin values are compared to all the
      * other images' bin values and a score is determined for how well the images
      * compare. The images are then arranged from most similar to the least.
-     *
+     * Once the user has marked relevant images, they are used to weight the
+     * bin values.
      */
     private class bothHandler implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            normalizeFeatures();
-            
-            double [] distance = new double [NUMBER_OF_IMAGES];
-            double d = 0.0;
-            int pic = picNo;
-            
             if (relevantCount == 0) { // use equal weight
-                // calculates distance matrix
-                double initialWeight = 1.0/(COLOR_CODE_BIN + INTENSITY_BIN);
-                for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                    for (int j = 0; j < COLOR_CODE_BIN + INTENSITY_BIN; j++) {
-                        d += initialWeight*Math.abs(intensityColorCodeMatrix[pic+1][j]
-                                                    - intensityColorCodeMatrix[i+1][j]);
-                    }
-                    distance[i] = d;
-                    d = 0.0;
-                }
+                startSearch(picNo, SearchEngine.Method.COMBINED, null);
                 relevantCount++;
-            } else {
-                // update relevant images weight
-                Map<Integer, LinkedList<Double>> map = new TreeMap<Integer, LinkedList<Double>>();
-                double[] sum = new double[COLOR_CODE_BIN + INTENSITY_BIN];
-                int relCount = 0;
-                // map col num with feature vector for relevant images
-                for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                    if (relevant[i].isSelected()) {
-                        relCount++;
-                        for (int col = 0; col < COLOR_CODE_BIN + INTENSITY_BIN; col++) {
-                            if (map.get(col) == null) {
-                                map.put(col, new LinkedList<Double>());
-                            }
-                            map.get(col).add(intensityColorCodeMatrix[i+1][col]);
-                            sum[col] += intensityColorCodeMatrix[i+1][col];
-                        }
-                    }
-                }
-                
-                // compute standard deviation for each feature vector between relevant images
-                double[] std = new double[COLOR_CODE_BIN + INTENSITY_BIN];
-                for (int key: map.keySet()) {
-                    for (int i = 0; i < map.get(key).size(); i++) {
-                        std[key] += Math.pow(map.get(key).get(i) - sum[key]/relCount, 2);
-                    }
-                    std[key] = Math.sqrt(std[key]/(relCount-1));
-                }
-                
-                // find the min non-zero std value
-                double minSTD = Double.MAX_VALUE;
-                for (double value: std) {
-                    minSTD = (value == 0) ? minSTD : Math.min(minSTD, value);
-                }
-                
-                double[] updatedWeight = new double[COLOR_CODE_BIN + INTENSITY_BIN];
-                double sumOfWeight = 0.0;
-                for (int i = 0; i < COLOR_CODE_BIN + INTENSITY_BIN; i++) {
-                    if (std[i] == 0) {
-                        if (sum[i] / relCount == 0) {
-                            updatedWeight[i] = 0.0;
-                        } else {
-                            std[i] = 0.5 * minSTD;
-                            updatedWeight[i] = 1/std[i];
-                        }
-                    } else {
-                        updatedWeight[i] = 1/std[i];
-                    }
-                    sumOfWeight+=updatedWeight[i];
-                }
-                
-                for (int i = 0; i < COLOR_CODE_BIN + INTENSITY_BIN; i++) {
-                    updatedWeight[i] = updatedWeight[i]/sumOfWeight;
-                }
-                
-                for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                    for (int j = 0; j < COLOR_CODE_BIN + INTENSITY_BIN; j++) {
-                        d += updatedWeight[j]*Math.abs(intensityColorCodeMatrix[pic+1][j]
-                                                       - intensityColorCodeMatrix[i+1][j]);
-                    }
-                    distance[i] = d;
-                    d = 0.0;
-                }
+            } else { // weight features by the relevant images
+                startSearch(picNo, SearchEngine.Method.COMBINED, feedback.weights());
             }
-            
-            // rank results
-            double[] sortedD = Arrays.copyOf(distance, NUMBER_OF_IMAGES);
-            Arrays.sort(sortedD);
-            for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
-                for (int j = 0; j < NUMBER_OF_IMAGES; j++) {
-                    if (sortedD[i] == distance[j]) {
-                        buttonOrder[i] = j;
-                    }
-                }
-            }
-            imageCount = 0;
-            pageNo = 0;
-            if (!relevance.isSelected()) {
-                addImagesOnly(pageNo);
-            } else {
-                addRelevant(pageNo);
-            }
-            bottomPanel.revalidate();
-            bottomPanel.repaint();
         }
     }
     
     /**
-     * Normalize intensity+colorCode feature values using Gaussian Normalization.
+     * Starts a search on a background thread and cancels the previous search
+     * if it has not finished yet. The results are shown when the search is
+     * done, unless a newer search was started in the meantime.
+     * @param queryRow row of the query image
+     * @param method the features used to compare images
+     * @param weights feature weights of a combined search, or null for equal weights
      */
-    private void normalizeFeatures() {
-        // calculate mean & std of features
-        double[] meanOfFeatures = new double[INTENSITY_BIN+COLOR_CODE_BIN];
-        double[] stdOfFeatures = new double[INTENSITY_BIN+COLOR_CODE_BIN];
-        for (int col = 0; col < INTENSITY_BIN+COLOR_CODE_BIN; col++) {
-            for (int row = 1; row <= NUMBER_OF_IMAGES; row++) {
-                meanOfFeatures[col] += intensityColorCodeMatrix[row][col];
-            }
-            meanOfFeatures[col] = meanOfFeatures[col]/NUMBER_OF_IMAGES;
-            for (int row = 1; row <= NUMBER_OF_IMAGES; row++) {
-                stdOfFeatures[col] += Math.pow(intensityColorCodeMatrix[row][col] - meanOfFeatures[col], 2);
-            }
-            stdOfFeatures[col] = Math.sqrt(stdOfFeatures[col] / (NUMBER_OF_IMAGES - 1));
+    private void startSearch(final int queryRow, final SearchEngine.Method method, final double[] weights) {
+        if (currentSearch != null) {
+            currentSearch.cancel(true);
         }
-        
-        // calculate Gaussian normalized features
-        for (int row = 1; row <= NUMBER_OF_IMAGES; row++) {
-            for (int col = 0; col < INTENSITY_BIN+COLOR_CODE_BIN; col++) {
-                if (stdOfFeatures[col] != 0) {
-                    intensityColorCodeMatrix[row][col] =
-                    (intensityColorCodeMatrix[row][col] -
-                     meanOfFeatures[col])/stdOfFeatures[col];
+        searchProgress.setIndeterminate(true);
+        searchProgress.setString("Searching...");
+        currentSearch = new SwingWorker<Ranking, Void>() {
+            @Override
+            protected Ranking doInBackground() {
+                Ranking ranking = weights == null ? engine.search(queryRow, method)
+                                                  : engine.searchCombined(queryRow, weights);
+                Metrics.Timer timer = Metrics.start(Metrics.Phase.RANK);
+                ranking.top(PAGE_SIZE);  // rank the first page here, not on the EDT
+                timer.stop();
+                return ranking;
+            }
+            
+            @Override
+            protected void done() {
+                if (currentSearch != this) {
+                    return;  // a newer search replaced this one
+                }
+                currentSearch = null;
+                searchProgress.setIndeterminate(false);
+                searchProgress.setString("");
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    showResults(get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Logger.getLogger(imageSearch.class.getName()).log(Level.SEVERE, null, e.getCause());
                 }
             }
+        };
+        currentSearch.execute();
+    }
+    
+    /**
+     * Shows the first page of a new search result.
+     * @param ranking the rows ordered from most to least similar
+     */
+    private void showResults(Ranking ranking) {
+        buttonOrder = ranking;
+        imageCount = 0;
+        pageNo = 0;
+        if (!relevance.isSelected()) {
+            addImagesOnly(pageNo);
+        } else {
+            addRelevant(pageNo);
         }
+        bottomPanel.revalidate();
+        bottomPanel.repaint();
     }
     
     /**
@@ -520,9 +509,10 @@ public class imageSearch extends JFrame {
     private class clearHandler implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
                 relevant[i].setSelected(false);
             }
+            feedback.clear();
             relevantCount = 0;
         }
     }
@@ -536,14 +526,17 @@ public class imageSearch extends JFrame {
         GridBagConstraints c = new GridBagConstraints();
         c.insets = new Insets(10,5,0,0);
         int startImage = startPage*20;
+        fillPage(startImage);
+        int slot = 0;
         for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 5; j++) {
+            for (int j = 0; j < 5 && startImage < numberOfImages; j++) {
                 c.gridx = j;
                 c.gridy = i;
-                imageButton[buttonOrder[startImage]].setPreferredSize(new
-                                                                      Dimension(RESULT_IMAGE_WIDTH,RESULT_IMAGE_HEIGHT));
-                bottomPanel.add(imageButton[buttonOrder[startImage]], c);
+                imageButton[slot].setPreferredSize(new
+                                                   Dimension(RESULT_IMAGE_WIDTH,RESULT_IMAGE_HEIGHT));
+                bottomPanel.add(imageButton[slot], c);
                 startImage++;
+                slot++;
             }
         }
         imageCount+=20;
@@ -558,113 +551,206 @@ public class imageSearch extends JFrame {
         GridBagConstraints c = new GridBagConstraints();
         c.insets = new Insets(5,5,0,0);
         int startImage = startPage*20;
+        fillPage(startImage);
+        int slot = 0;
         for (int dy = 0; dy < 8; dy+=2) {
             c.gridy = dy;
-            for (int i = 0; i < 5; i++) {
+            for (int i = 0; i < 5 && startImage + i < numberOfImages; i++) {
                 c.gridx = i;
-                imageButton[buttonOrder[startImage]].setPreferredSize(new
-                                                                      Dimension(RESULT_IMAGE_WIDTH,RESULT_IMAGE_HEIGHT));
-                bottomPanel.add(imageButton[buttonOrder[startImage]], c);
-                startImage++;
+                imageButton[slot + i].setPreferredSize(new
+                                                       Dimension(RESULT_IMAGE_WIDTH,RESULT_IMAGE_HEIGHT));
+                bottomPanel.add(imageButton[slot + i], c);
             }
-            startImage-=5;
             c.gridy = dy + 1;
-            for (int i = 0; i < 5; i++) {
+            for (int i = 0; i < 5 && startImage < numberOfImages; i++) {
                 c.gridx = i;
-                bottomPanel.add(relevant[buttonOrder[startImage]], c);
+                bottomPanel.add(relevant[slot], c);
                 startImage++;
+                slot++;
             }
         }
         imageCount+=20;
     }
     
     /**
-     * This method opens the intensity text file containing the intensity matrix
-     * with the histogram bin values for each image. The contents of the matrix
-     * are processed and stored in a two dimensional array called intensityMatrix.
+     * Shows the images of a page on the page's buttons and sets the relevant
+     * check boxes to whether those images are marked as relevant. Thumbnails
+     * not loaded yet are shown once they are, and the thumbnails of the next
+     * page are loaded in the background. Waiting loads of other pages are dropped.
+     * @param startImage position in buttonOrder of the first image on the page
      */
-    public void readIntensityFile() {
-        StringTokenizer token;
-        Scanner read;
-        String line = "";
-        
-        try{
-            read = new Scanner(new File ("intensity.txt"));
-            while (read.hasNext()) {
-                line = read.nextLine();
-                token = new StringTokenizer(line);
-                int imageNo = Integer.parseInt(token.nextToken());
-                int imageSize = Integer.parseInt(token.nextToken());
-                
-                int index = 0;
-                while (token.hasMoreTokens()) {
-                    int count = Integer.parseInt(token.nextToken());
-                    double temp = (double) count / imageSize;
-                    intensityMatrix[imageNo][index] = temp;
-                    intensityColorCodeMatrix[imageNo][index] = temp;
-                    index++;
+    private void fillPage(int startImage) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.PAGE);
+        thumbnails.cancelPending();  // thumbnails of pages no longer shown
+        for (int slot = 0; slot < PAGE_SIZE; slot++) {
+            if (startImage + slot >= numberOfImages) {
+                imageButton[slot].setIcon(null);
+                continue;
+            }
+            final int row = buttonOrder.get(startImage + slot);
+            final int buttonSlot = slot;
+            pageRow[slot] = row;
+            BufferedImage thumbnail = thumbnails.getLoaded(imageFile[row]);
+            imageButton[slot].setIcon(thumbnail == null ? null : new ImageIcon(thumbnail));
+            if (thumbnail == null) {
+                thumbnails.load(imageFile[row], new ThumbnailService.Listener() {
+                    public void thumbnailLoaded(File file, BufferedImage loaded) {
+                        if (loaded != null && pageRow[buttonSlot] == row) {  // still on the page
+                            imageButton[buttonSlot].setIcon(new ImageIcon(loaded));
+                        }
+                    }
+                });
+            }
+            relevant[slot].setSelected(feedback.isRelevant(row));
+        }
+        for (int i = startImage + PAGE_SIZE; i < Math.min(startImage + 2 * PAGE_SIZE, numberOfImages); i++) {
+            thumbnails.load(imageFile[buttonOrder.get(i)], null);
+        }
+        timer.stop();
+    }
+    
+    /**
+     * This method maps the binary feature store. If there is no feature store
+     * yet but the legacy text files exist, they are imported into a new
+     * feature store first.
+     * @return the feature store, or null if it cannot be read
+     */
+    private static FeatureStore openFeatureStore() {
+        File storeFile = new File(FeatureStore.FILE_NAME);
+        try {
+            if (!storeFile.exists()) {
+                File intensityFile = new File("intensity.txt");
+                File colorCodeFile = new File("colorCode.txt");
+                if (!intensityFile.exists() || !colorCodeFile.exists()) {
+                    return null;
                 }
-                index = 0;
+                FeatureStore.importText(intensityFile, colorCodeFile, storeFile);
             }
-        } catch(FileNotFoundException EE){
-            System.out.println("The file intensity.txt does not exist");
+            return FeatureStore.open(storeFile);
+        } catch (IOException e) {
+            System.out.println("Failed to read the feature store " + FeatureStore.FILE_NAME);
+            return null;
         }
     }
     
+    /**
+     * This method opens the intensity text file containing the intensity matrix
+     * with the histogram bin values for each image. The contents of the matrix
+     * are processed and stored in a two dimensional array called intensityMatrix.
+     * @param imageNo image number of each row
+     * @return intensityMatrix, with one row per indexed image
+     */
+    public static double[][] readIntensityFile(int[] imageNo) {
+        return readHistogramFile(new File("intensity.txt"), imageNo, INTENSITY_BIN);
+    }
+    
     /**
      * This method opens the color code text file containing the color code
      * matrix with the histogram bin values for each image. The contents of the
      * matrix are processed and stored in a two dimensional array called
      * colorCodeMatrix.
+     * @param imageNo image number of each row
+     * @return colorCodeMatrix, with one row per indexed image
      */
-    private void readColorCodeFile(){
-        StringTokenizer token;
-        Scanner read;
-        String line = "";
-        
-        try{
-            read = new Scanner(new File ("colorCode.txt"));
-            while (read.hasNext()) {
-                line = read.nextLine();
-                token = new StringTokenizer(line);
-                int imageNo = Integer.parseInt(token.nextToken());
-                int imageSize = Integer.parseInt(token.nextToken());
-                
-                int index = 0;
-                while (token.hasMoreTokens()) {
-                    int count = Integer.parseInt(token.nextToken());
-                    double temp = (double) count / imageSize;
-                    colorCodeMatrix[imageNo][index] = temp;
-                    intensityColorCodeMatrix[imageNo][index + INTENSITY_BIN] = temp;
-                    index++;
-                }
-                index = 0;
+    private static double[][] readColorCodeFile(int[] imageNo){
+        return readHistogramFile(new File("colorCode.txt"), imageNo, COLOR_CODE_BIN);
+    }
+    
+    /**
+     * Parses a histogram text file in parallel with HistogramTextParser.
+     * @return the matrix, with one row per indexed image; rows stay zero if
+     *         the file cannot be read
+     */
+    private static double[][] readHistogramFile(File file, int[] imageNo, int bins) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.READ_TEXT);
+        double[][] matrix = new double[imageNo.length][bins];
+        if (!file.exists()) {
+            System.out.println("The file " + file.getName() + " does not exist");
+        } else {
+            try {
+                matrix = HistogramTextParser.read(file, imageNo, bins,
+                                                  Runtime.getRuntime().availableProcessors());
+            } catch (IOException e) {
+                System.out.println("Failed to read " + file.getName() + ": " + e.getMessage());
             }
         }
-        catch(FileNotFoundException EE){
-            System.out.println("The file intensity.txt does not exist");
-        }
+        timer.stop();
+        return matrix;
     }
     
     /**
      * Run GUI
-     * @param args
+     * @param args directories containing the images; the sample images are
+     *             used if none are given
      */
     public static void main(String[] args) {
-        // start GUI
+        final List<File> directories = new ArrayList<File>();
+        for (String arg : args) {
+            directories.add(new File(arg));
+        }
+        if (directories.isEmpty()) {
+            directories.addAll(ImageCatalog.defaultDirectories());
+        }
+        
+        // index the images and load the index on a background thread, then start the GUI
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-                try {
-                    readImage a = new readImage();
-                } catch (URISyntaxException ex) {
-                    Logger.getLogger(imageSearch.class.getName()).log(Level.SEVERE, null, ex);
-                } catch (IOException ex) {
-                    Logger.getLogger(imageSearch.class.getName()).log(Level.SEVERE, null, ex);
-                }
-                imageSearch app = new imageSearch();
-                app.setVisible(true);
+                final JFrame progressFrame = new JFrame("imageSearch");
+                final JProgressBar indexProgress = new JProgressBar(0, 100);
+                indexProgress.setStringPainted(true);
+                indexProgress.setString("Indexing images...");
+                progressFrame.getContentPane().add(indexProgress);
+                progressFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                progressFrame.setSize(300, 60);
+                progressFrame.setLocationRelativeTo(null);
+                progressFrame.setVisible(true);
+                
+                SwingWorker<Index, Void> indexer = new SwingWorker<Index, Void>() {
+                    @Override
+                    protected Index doInBackground() {
+                        try {
+                            new readImage(directories, Runtime.getRuntime().availableProcessors(), true,
+                                          new readImage.Progress() {
+                                              public void imagesRead(int done, int total) {
+                                                  setProgress(done * 100 / total);
+                                              }
+                                          });
+                        } catch (IOException e) {
+                            // search whatever the previous run indexed
+                            Logger.getLogger(imageSearch.class.getName()).log(Level.SEVERE, null, e);
+                        }
+                        SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                indexProgress.setIndeterminate(true);
+                                indexProgress.setString("Loading the index...");
+                            }
+                        });
+                        return loadIndex();
+                    }
+                    
+                    @Override
+                    protected void done() {
+                        progressFrame.dispose();
+                        try {
+                            // only the frame is built here, the index is loaded already
+                            imageSearch app = new imageSearch(get());
+                            app.setVisible(true);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (ExecutionException e) {
+                            Logger.getLogger(imageSearch.class.getName()).log(Level.SEVERE, null, e.getCause());
+                        }
+                    }
+                };
+                indexer.addPropertyChangeListener(new PropertyChangeListener() {
+                    public void propertyChange(PropertyChangeEvent e) {
+                        if ("progress".equals(e.getPropertyName())) {
+                            indexProgress.setValue((Integer) e.getNewValue());
+                        }
+                    }
+                });
+                indexer.execute();
             }
         });
     }
 }
-
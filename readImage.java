@@ -9,51 +9,568 @@ import java.awt.image.*;
 import java.lang.Object.*;
 import javax.swing.*;
 import java.io.*;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.imageio.*;
 
 /**
  * This class reads in images and calculates intensity and color code values for
  * each pixel in each image. Then, it outputs to a text file which containing
- * all values for each image.
+ * all values for each image. The images are found by an ImageCatalog, so any
+ * number of images in any number of directories can be indexed.
+ *
+ * Images pass through a pipeline of stages connected by bounded queues: one
+ * thread reads and hashes the files, a pool of threads decodes them, another
+ * pool computes their histograms, and the calling thread stores the features
+ * and appends them to the IndexJournal. A stage that gets ahead blocks until
+ * the next one catches up, so no more than three decoded images per thread
+ * are in memory at once however many images are indexed, and the journal
+ * keeps every finished image if the run is interrupted.
+ *
+ * The feature extractors named in -DimageSearch.extractors are computed in the
+ * same pixel sweep as intensity and color code and stored in features.bin
+ * only; the text files keep the intensity and color code histograms.
  */
 public class readImage {
-    public final int NUMBER_OF_IMAGES = 100;
     public final int INTENSITY_BINS = 25;
     public final int COLORCODE_BINS = 64;
     
-    int imageCount = 1; // keep track of images being read in
-    int[] imageSize = new int[NUMBER_OF_IMAGES + 1]; // 1-100
-    int intensityMatrix [][] = new int[NUMBER_OF_IMAGES + 1][INTENSITY_BINS];
-    int colorCodeMatrix [][] = new int[NUMBER_OF_IMAGES + 1][COLORCODE_BINS];
+    ImageCatalog catalog; // images found in the image directories
+    int numberOfImages; // number of images in the catalog
+    int imageCount = 0; // keep track of images being read in
+    int[] imageSize; // indexed by catalog position, 0 for missing images
+    int intensityMatrix [][];
+    int colorCodeMatrix [][];
+    int extraMatrix [][];  // bins of the extra feature extractors, one after the other
+    
+    // feature extractors indexed in addition to intensity and color code
+    final List<FeatureExtractor> extras = FeatureExtractors.configured();
+    private final List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+    
+    // images indexed by this run, and the index left by the previous run
+    IndexManifest manifest = new IndexManifest();
+    private IndexManifest previousManifest = new IndexManifest();
+    private FeatureStore previousStore;
+    private Map<Integer, Integer> storedRows = new HashMap<Integer, Integer>();
+    private boolean[] copied;  // true for positions whose stored features were kept
+    private FeatureStats stats;
+    private Progress progress;  // null if progress is not reported
+    private final AtomicInteger processed = new AtomicInteger();
+    private Map<Integer, IndexJournal.Row> journalRows = new HashMap<Integer, IndexJournal.Row>();
+    private IndexJournal journal;  // null if the journal cannot be written
+    
+    /**
+     * Receives the progress of feature extraction, from the thread running
+     * the indexing.
+     */
+    public interface Progress {
+        /**
+         * @param done number of images read in so far
+         * @param total number of images to be read in
+         */
+        void imagesRead(int done, int total);
+    }
     
     /**
      * Each image is retrieved from the file. The height and width are found for
-     * the image and the getIntensity and getColorCode methods are called.
+     * the image and its intensity and color code histograms are computed in a
+     * single pass by HistogramKernel.
      * @throws java.io.IOException
      */
-    public readImage() throws URISyntaxException, IOException {
-        while(imageCount <= NUMBER_OF_IMAGES){
-            try {
-                // read in image and find the height and width
-                URI imageurl = getClass().getResource(imageCount + ".jpg").toURI();
-                BufferedImage image = ImageIO.read(new File(imageurl));
-                int height = image.getHeight();
-                int width = image.getWidth();
-                
-                getIntensity(image, height, width);
-                getColorCode(image, height, width);
-                imageSize[imageCount] = height * width;
-                imageCount++;
-            }
-            catch (IOException e) {
-                System.out.println("Error occurred when reading the file.");
+    public readImage() throws IOException {
+        this(1);
+    }
+    
+    /**
+     * Reads in all images using the given number of decoding threads and as
+     * many histogram threads. The resulting text files are identical for any
+     * number of threads.
+     * @param threads number of worker threads used for feature extraction
+     * @throws java.io.IOException
+     */
+    public readImage(int threads) throws IOException {
+        this(threads, false);
+    }
+    
+    /**
+     * Reads in the images in the default image directory using the given
+     * number of worker threads.
+     * @param threads number of worker threads used for feature extraction
+     * @param incremental true to reuse the features of unchanged images
+     * @throws java.io.IOException
+     */
+    public readImage(int threads, boolean incremental) throws IOException {
+        this(ImageCatalog.defaultDirectories(), threads, incremental);
+    }
+    
+    /**
+     * Reads in all images found in the given directories using the given number
+     * of worker threads. Each image keeps the image number recorded for it in
+     * the index manifest. When incremental is true, the feature store of the
+     * previous run is consulted as well and only images which are new or whose
+     * content changed are decoded again; images that no longer exist are
+     * dropped from the index. Images finished by an interrupted run are taken
+     * from its journal as well.
+     * @param directories directories to be searched for images
+     * @param threads number of worker threads used for feature extraction
+     * @param incremental true to reuse the features of unchanged images
+     * @throws java.io.IOException if an image directory cannot be listed
+     */
+    public readImage(List<File> directories, int threads, boolean incremental) throws IOException {
+        this(directories, threads, incremental, null);
+    }
+    
+    /**
+     * Reads in all images found in the given directories like
+     * readImage(directories, threads, incremental) and reports its progress.
+     * @param directories directories to be searched for images
+     * @param threads number of worker threads used for feature extraction
+     * @param incremental true to reuse the features of unchanged images
+     * @param progress receives the number of images read in after each image, or null
+     * @throws java.io.IOException if an image directory cannot be listed
+     */
+    public readImage(List<File> directories, int threads, boolean incremental, Progress progress)
+    throws IOException {
+        this.progress = progress;
+        extractors.add(FeatureExtractors.INTENSITY);
+        extractors.add(FeatureExtractors.COLOR_CODE);
+        extractors.addAll(extras);
+        loadPreviousIndex(incremental);
+        catalog = ImageCatalog.scan(directories, previousManifest);
+        manifest.setHighestImageNo(catalog.getHighestImageNo());
+        numberOfImages = catalog.size();
+        imageSize = new int[numberOfImages];
+        intensityMatrix = new int[numberOfImages][INTENSITY_BINS];
+        colorCodeMatrix = new int[numberOfImages][COLORCODE_BINS];
+        extraMatrix = new int[numberOfImages][FeatureExtractors.bins(extras)];
+        copied = new boolean[numberOfImages];
+        
+        try {
+            journal = new IndexJournal(new File(IndexJournal.FILE_NAME), ImageDecoder.PIXEL_BUDGET, extras);
+        }
+        catch (IOException e) {
+            System.out.println("Failed to write the index journal.");
+        }
+        
+        // images whose file is unchanged keep their stored or journaled features;
+        // rows are indexed by catalog position, the image number is only a label
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < catalog.size(); i++) {
+            File file = catalog.getFile(i);
+            IndexManifest.Entry entry = previousManifest.get(catalog.getImageNo(i));
+            if (entry != null && entry.matches(file) && copyStoredRow(i)) {
+                manifest.put(entry);
+            } else if (!copyJournalRow(i, file)) {
+                pending.add(i);
             }
         }
+        journalRows = null;
+        
+        try {
+            extract(Math.max(1, threads), pending);
+        }
+        finally {
+            closeJournal();
+        }
+        imageCount = numberOfImages;
+        updateStats();
+        previousStore = null;
+        
         writeIntensity();
         writeColorCode();
+        boolean stored = writeFeatureStore();
+        writeManifest();
+        if (stored) {
+            new File(IndexJournal.FILE_NAME).delete();
+        }
+    }
+    
+    private void reportProgress(int total) {
+        int done = processed.incrementAndGet();
+        if (progress != null) {
+            progress.imagesRead(done, total);
+        }
+    }
+    
+    /**
+     * Loads the manifest written by the previous run, which keeps image numbers
+     * stable, and with incremental set also its feature store. If they cannot
+     * be read, all images are extracted again.
+     */
+    private void loadPreviousIndex(boolean incremental) {
+        File manifestFile = new File(IndexManifest.FILE_NAME);
+        File storeFile = new File(FeatureStore.FILE_NAME);
+        try {
+            previousManifest = IndexManifest.load(manifestFile);
+        }
+        catch (IOException e) {
+            System.out.println("Failed to read the previous index manifest.");
+            return;
+        }
+        if (!incremental) {
+            return;
+        }
+        try {
+            journalRows = IndexJournal.load(new File(IndexJournal.FILE_NAME), ImageDecoder.PIXEL_BUDGET, extras,
+                                            INTENSITY_BINS, COLORCODE_BINS);
+        }
+        catch (IOException e) {
+            System.out.println("Failed to read the index journal.");
+        }
+        if (!storeFile.exists()) {
+            return;
+        }
+        try {
+            FeatureStore store = FeatureStore.open(storeFile);
+            if (store.getIntensityBins() != INTENSITY_BINS || store.getColorCodeBins() != COLORCODE_BINS
+                || store.getPixelBudget() != ImageDecoder.PIXEL_BUDGET || !storesExtras(store)) {
+                return;
+            }
+            for (int row = 0; row < store.getImageCount(); row++) {
+                storedRows.put(store.getImageNo(row), row);
+            }
+            previousStore = store;
+        }
+        catch (IOException e) {
+            System.out.println("Failed to read the previous index, all images are read again.");
+        }
+    }
+    
+    /**
+     * @return true if the store holds the features of exactly the extra extractors
+     */
+    private boolean storesExtras(FeatureStore store) {
+        if (store.getExtraExtractors().size() != extras.size()) {
+            return false;
+        }
+        for (int i = 0; i < extras.size(); i++) {
+            if (!store.getExtraExtractors().get(i).equals(extras.get(i).getName())
+                || store.getExtraBins(i) != extras.get(i).getBins()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Copies the stored features of an unchanged image into its row.
+     * @param index position of the image in the catalog
+     * @return false if the previous feature store has no row for the image
+     */
+    private boolean copyStoredRow(int index) {
+        Integer row = storedRows.get(catalog.getImageNo(index));
+        if (previousStore == null || row == null) {
+            return false;
+        }
+        for (int j = 0; j < INTENSITY_BINS; j++) {
+            intensityMatrix[index][j] = previousStore.getIntensityCount(row, j);
+        }
+        for (int j = 0; j < COLORCODE_BINS; j++) {
+            colorCodeMatrix[index][j] = previousStore.getColorCodeCount(row, j);
+        }
+        for (int j = 0; j < extraMatrix[index].length; j++) {
+            extraMatrix[index][j] = previousStore.getExtraCount(row, j);
+        }
+        imageSize[index] = previousStore.getImageSize(row);
+        copied[index] = true;
+        Metrics.count(Metrics.Counter.IMAGES_REUSED);
+        return true;
+    }
+    
+    /**
+     * Updates the normalization statistics of the previous feature store by
+     * removing the images that were deleted or changed and adding the images
+     * that were read in, or computes them from all images without a previous
+     * store.
+     */
+    private void updateStats() {
+        int features = INTENSITY_BINS + COLORCODE_BINS + FeatureExtractors.bins(extras);
+        boolean incremental = previousStore != null && previousStore.getImageCount() > 1;
+        if (incremental) {
+            stats = FeatureStats.of(previousStore.getMean(), previousStore.getStd(), previousStore.getImageCount());
+            for (int row = 0; row < previousStore.getImageCount(); row++) {
+                int index = catalog.indexOf(previousStore.getImageNo(row));
+                if (index < 0 || !copied[index]) {
+                    stats.remove(previousStore.getFeatures(row));
+                }
+            }
+        } else {
+            stats = new FeatureStats(features);
+        }
+        for (int i = 0; i < numberOfImages; i++) {
+            if (imageSize[i] != 0 && (!incremental || !copied[i])) {
+                stats.add(FeatureStore.features(intensityMatrix[i], colorCodeMatrix[i], extraMatrix[i], imageSize[i]));
+            }
+        }
+    }
+    
+    /**
+     * Copies the features an interrupted run journaled for an unchanged image
+     * into its row and journals them again.
+     * @param index position of the image in the catalog
+     * @return false if the journal has no row for the image's current file
+     */
+    private boolean copyJournalRow(int index, File file) {
+        IndexJournal.Row row = journalRows.get(catalog.getImageNo(index));
+        if (row == null || !row.entry.matches(file)) {
+            return false;
+        }
+        System.arraycopy(row.intensity, 0, intensityMatrix[index], 0, INTENSITY_BINS);
+        System.arraycopy(row.colorCode, 0, colorCodeMatrix[index], 0, COLORCODE_BINS);
+        System.arraycopy(row.extra, 0, extraMatrix[index], 0, row.extra.length);
+        imageSize[index] = row.imageSize;
+        manifest.put(row.entry);
+        appendJournal(row.entry, index);
+        Metrics.count(Metrics.Counter.IMAGES_REUSED);
+        return true;
+    }
+    
+    private void appendJournal(IndexManifest.Entry entry, int index) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(entry, imageSize[index], intensityMatrix[index], colorCodeMatrix[index],
+                           extraMatrix[index]);
+        }
+        catch (IOException e) {
+            System.out.println("Failed to write the index journal.");
+            closeJournal();
+        }
+    }
+    
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        }
+        catch (IOException e) {
+            System.out.println("Failed to write the index journal.");
+        }
+        journal = null;
+    }
+    
+    /**
+     * An image passing through the stages of the indexing pipeline.
+     */
+    private static final class Job {
+        final int index;      // position in the catalog
+        IndexManifest.Entry entry;
+        byte[] content;       // set by the read stage, dropped once decoded
+        BufferedImage image;  // set by the decode stage, dropped once histogrammed
+        int size;             // number of decoded pixels
+        boolean reused;       // content is unchanged, the stored features are kept
+        boolean failed;       // the image could not be read
+        
+        Job(int index) {
+            this.index = index;
+        }
+    }
+    
+    private static final Job END = new Job(-1);  // sent by each worker when its input is exhausted
+    
+    /**
+     * Reads in the pending images through the pipeline of read, decode,
+     * histogram and store stages. The decode and histogram stages have the
+     * given number of threads each and write the histograms of an image into
+     * its own row, so no two threads ever write the same row. Each queue holds
+     * at most one image per thread.
+     */
+    private void extract(final int threads, final List<Integer> pending) throws IOException {
+        final BlockingQueue<Job> toDecode = new ArrayBlockingQueue<Job>(threads);
+        final BlockingQueue<Job> toHistogram = new ArrayBlockingQueue<Job>(threads);
+        final BlockingQueue<Job> toStore = new ArrayBlockingQueue<Job>(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final ExecutorService pool = Executors.newFixedThreadPool(1 + 2 * threads);
+        try {
+            pool.execute(new Stage(failure, pool) {
+                void work() throws InterruptedException {
+                    for (int index : pending) {
+                        toDecode.put(read(index));
+                    }
+                    for (int t = 0; t < threads; t++) {
+                        toDecode.put(END);
+                    }
+                }
+            });
+            for (int t = 0; t < threads; t++) {
+                pool.execute(new Stage(failure, pool) {
+                    void work() throws InterruptedException {
+                        Job job;
+                        while ((job = toDecode.take()) != END) {
+                            toHistogram.put(decode(job));
+                        }
+                        toHistogram.put(END);
+                    }
+                });
+                pool.execute(new Stage(failure, pool) {
+                    void work() throws InterruptedException {
+                        Job job;
+                        while ((job = toHistogram.take()) != END) {
+                            toStore.put(histogram(job));
+                        }
+                        toStore.put(END);
+                    }
+                });
+            }
+            
+            int finished = 0;
+            while (finished < threads) {
+                Job job = toStore.poll(100, TimeUnit.MILLISECONDS);
+                Throwable cause = failure.get();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (job == END) {
+                    finished++;
+                } else if (job != null) {
+                    store(job);
+                    reportProgress(pending.size());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Feature extraction was interrupted.");
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * One stage of the pipeline, running on a pool thread. If it fails, the
+     * failure is recorded and all stages are stopped.
+     */
+    private abstract static class Stage implements Runnable {
+        private final AtomicReference<Throwable> failure;
+        private final ExecutorService pool;
+        
+        Stage(AtomicReference<Throwable> failure, ExecutorService pool) {
+            this.failure = failure;
+            this.pool = pool;
+        }
+        
+        abstract void work() throws InterruptedException;
+        
+        public void run() {
+            try {
+                work();
+            }
+            catch (InterruptedException e) {
+                // the pipeline is shutting down
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                pool.shutdownNow();
+            }
+        }
+    }
+    
+    /**
+     * Reads one image file and records the manifest entry describing it. If
+     * only the modification time of the file changed but its content hash did
+     * not, the stored features are kept and the image is not decoded.
+     */
+    private Job read(int index) {
+        Job job = new Job(index);
+        try {
+            int imageNo = catalog.getImageNo(index);
+            File file = catalog.getFile(index);
+            job.content = Files.readAllBytes(file.toPath());
+            job.entry = new IndexManifest.Entry(imageNo, file.getAbsolutePath(), file.length(),
+                                                file.lastModified(),
+                                                IndexManifest.hash(new ByteArrayInputStream(job.content)));
+            IndexManifest.Entry previous = previousManifest.get(imageNo);
+            if (previous != null && previous.hash.equals(job.entry.hash)
+                && previousStore != null && storedRows.containsKey(imageNo)) {
+                job.reused = true;
+                job.content = null;
+            }
+        }
+        catch (IOException e) {
+            job.failed = true;
+            job.content = null;
+        }
+        return job;
+    }
+    
+    /**
+     * Decodes the image, subsampled to the pixel budget.
+     */
+    private Job decode(Job job) {
+        if (job.failed || job.reused) {
+            return job;
+        }
+        Metrics.Timer decode = Metrics.start(Metrics.Phase.DECODE);
+        try {
+            job.image = ImageDecoder.read(new ByteArrayInputStream(job.content), ImageDecoder.PIXEL_BUDGET);
+        }
+        catch (IOException e) {
+            job.image = null;
+        }
+        decode.stop();
+        job.content = null;
+        job.failed = job.image == null;
+        return job;
+    }
+    
+    /**
+     * Computes the histograms of the decoded image into the image's row, in a
+     * single sweep over its pixels for all extractors.
+     */
+    private Job histogram(Job job) {
+        if (job.image == null) {
+            return job;
+        }
+        int[] intensityBins = intensityMatrix[job.index];
+        int[] colorCodeBins = colorCodeMatrix[job.index];
+        Arrays.fill(intensityBins, 0);
+        Arrays.fill(colorCodeBins, 0);
+        Metrics.Timer histogram = Metrics.start(Metrics.Phase.HISTOGRAM);
+        if (extras.isEmpty()) {
+            HistogramKernel.extract(job.image, intensityBins, colorCodeBins);
+        } else {
+            int[][] bins = new int[extractors.size()][];
+            bins[0] = intensityBins;
+            bins[1] = colorCodeBins;
+            for (int e = 2; e < bins.length; e++) {
+                bins[e] = new int[extractors.get(e).getBins()];
+            }
+            HistogramKernel.extract(job.image, extractors, bins);
+            for (int e = 2, offset = 0; e < bins.length; offset += bins[e].length, e++) {
+                System.arraycopy(bins[e], 0, extraMatrix[job.index], offset, bins[e].length);
+            }
+        }
+        histogram.stop();
+        job.size = job.image.getHeight() * job.image.getWidth();
+        job.image = null;
+        return job;
+    }
+    
+    /**
+     * Records a finished image in the manifest and the journal.
+     */
+    private void store(Job job) {
+        if (job.failed) {
+            System.out.println("Error occurred when reading the file.");
+            return;
+        }
+        if (job.reused) {
+            copyStoredRow(job.index);
+        } else {
+            imageSize[job.index] = job.size;
+            Metrics.count(Metrics.Counter.IMAGES_INDEXED);
+            appendJournal(job.entry, job.index);
+        }
+        manifest.put(job.entry);
     }
     
     /**
@@ -61,6 +578,14 @@ public class readImage {
      * corresponding bin.
      */
     public void getIntensity(BufferedImage image, int height, int width){
+        getIntensity(image, height, width, intensityMatrix[imageCount]);
+    }
+    
+    /**
+     * Calculates the intensity of each pixel in an image and count each value in
+     * the given bins.
+     */
+    void getIntensity(BufferedImage image, int height, int width, int[] bins){
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
                 int rgb = image.getRGB(j, i);
@@ -74,9 +599,9 @@ public class readImage {
                 // add count in corresponding bin
                 int insertIndex = (int) intensity / 10;
                 if (intensity >= 250) {
-                    intensityMatrix[imageCount][INTENSITY_BINS - 1]++;
+                    bins[INTENSITY_BINS - 1]++;
                 } else {
-                    intensityMatrix[imageCount][insertIndex]++;
+                    bins[insertIndex]++;
                 }
             }
         }
@@ -87,6 +612,14 @@ public class readImage {
      * corresponding bin.
      */
     public void getColorCode(BufferedImage image, int height, int width){
+        getColorCode(image, height, width, colorCodeMatrix[imageCount]);
+    }
+    
+    /**
+     * Calculates the color code for each pixel in an image and count each value in
+     * the given bins.
+     */
+    void getColorCode(BufferedImage image, int height, int width, int[] bins){
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
                 int rgb = image.getRGB(j, i);
@@ -101,7 +634,7 @@ public class readImage {
                 bValue = (bValue & 0xFF) >>> 6;
                 
                 int colorCode = rValue + gValue + bValue;
-                colorCodeMatrix[imageCount][colorCode]++;
+                bins[colorCode]++;
             }
         }
     }
@@ -111,11 +644,15 @@ public class readImage {
      * colorCode.txt
      */
     public void writeColorCode() throws IOException{
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.WRITE_TEXT);
         try {
             FileWriter writer = new FileWriter(new File("colorCode.txt"));
             BufferedWriter ostream = new BufferedWriter(writer);
-            for (int i = 1; i < NUMBER_OF_IMAGES + 1; i++) {
-                ostream.append(i + "");
+            for (int i = 0; i < numberOfImages; i++) {
+                if (imageSize[i] == 0) {
+                    continue; // image is missing
+                }
+                ostream.append(catalog.getImageNo(i) + "");
                 ostream.append(" " + imageSize[i]);
                 for (int j = 0; j < COLORCODE_BINS; j++) {
                     ostream.append(" ");
@@ -128,6 +665,7 @@ public class readImage {
         catch (IOException e) {
             System.out.println("Failed to write to a text file.");
         }
+        timer.stop();
     }
     
     /**
@@ -135,11 +673,15 @@ public class readImage {
      * intensity.txt
      */
     public void writeIntensity() {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.WRITE_TEXT);
         try {
             FileWriter writer = new FileWriter(new File("intensity.txt"));
             BufferedWriter ostream = new BufferedWriter(writer);
-            for (int i = 1; i < NUMBER_OF_IMAGES + 1; i++) {
-                ostream.append(i + "");
+            for (int i = 0; i < numberOfImages; i++) {
+                if (imageSize[i] == 0) {
+                    continue; // image is missing
+                }
+                ostream.append(catalog.getImageNo(i) + "");
                 ostream.append(" " + imageSize[i]);
                 for (int j = 0; j < INTENSITY_BINS; j++) {
                     ostream.append(" ");
@@ -152,6 +694,69 @@ public class readImage {
         catch (IOException e) {
             System.out.println("Failed to write to a text file.");
         }
+        timer.stop();
+    }
+    
+    /**
+     * This method writes the intensity, color code and extra matrices of all
+     * images that were read in to the binary feature store file features.bin, and
+     * builds the search trees for it
+     * @return true if the feature store was written
+     */
+    public boolean writeFeatureStore() {
+        List<Integer> indexed = new ArrayList<Integer>();
+        for (int i = 0; i < numberOfImages; i++) {
+            if (imageSize[i] != 0) {
+                indexed.add(i);
+            }
+        }
+        int[] imageNo = new int[indexed.size()];
+        int[] size = new int[indexed.size()];
+        int[][] intensity = new int[indexed.size()][];
+        int[][] colorCode = new int[indexed.size()][];
+        int[][] extra = new int[indexed.size()][];
+        for (int row = 0; row < indexed.size(); row++) {
+            int i = indexed.get(row);
+            imageNo[row] = catalog.getImageNo(i);
+            size[row] = imageSize[i];
+            intensity[row] = intensityMatrix[i];
+            colorCode[row] = colorCodeMatrix[i];
+            extra[row] = extraMatrix[i];
+        }
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.WRITE_STORE);
+        try {
+            if (stats == null || stats.getCount() != imageNo.length) {
+                stats = FeatureStore.stats(size, intensity, colorCode, extra);
+            }
+            FeatureStore.write(new File(FeatureStore.FILE_NAME), imageNo, size, intensity, colorCode, extras, extra,
+                               stats, ImageDecoder.PIXEL_BUDGET);
+        }
+        catch (IOException e) {
+            System.out.println("Failed to write the feature store.");
+            return false;
+        }
+        timer.stop();
+        try {
+            Metrics.Timer trees = Metrics.start(Metrics.Phase.BUILD_TREES);
+            SearchEngine.writeTrees(FeatureStore.open(new File(FeatureStore.FILE_NAME)));
+            trees.stop();
+        }
+        catch (IOException e) {
+            System.out.println("Failed to write the search trees.");
+        }
+        return true;
+    }
+    
+    /**
+     * This method writes the index manifest describing the file each image's
+     * features were extracted from to index.manifest
+     */
+    public void writeManifest() {
+        try {
+            manifest.save(new File(IndexManifest.FILE_NAME));
+        }
+        catch (IOException e) {
+            System.out.println("Failed to write the index manifest.");
+        }
     }
 }
-